@@ -0,0 +1,84 @@
+package tinyboy.bench;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javr.io.HexFile;
+import tinyboy.util.CoverageAnalysis;
+
+/**
+ * Measures the cost of constructing a coverage analysis, recording coverage
+ * with it and querying the resulting coverage.
+ *
+ * @author David J. Pearce
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoverageBenchmark {
+	@Param({ "snake", "tetris" })
+	public String rom;
+
+	private HexFile firmware;
+
+	private CoverageAnalysis analysis;
+	/**
+	 * Random subsets of the reachable instructions, as would be reported by
+	 * individual runs.
+	 */
+	private BitSet[] runs;
+
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		firmware = Roms.load(rom);
+		analysis = new CoverageAnalysis(firmware);
+		BitSet reachable = analysis.getReachableInstructions();
+		Random random = new Random(0);
+		runs = new BitSet[64];
+		for (int i = 0; i != runs.length; ++i) {
+			runs[i] = new BitSet();
+			for (int pc = reachable.nextSetBit(0); pc >= 0; pc = reachable.nextSetBit(pc + 1)) {
+				if (random.nextInt(4) == 0) {
+					runs[i].set(pc);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public CoverageAnalysis construct() {
+		return new CoverageAnalysis(firmware);
+	}
+
+	@Benchmark
+	public CoverageAnalysis record() {
+		analysis.record(runs[next]);
+		next = (next + 1) % runs.length;
+		return analysis;
+	}
+
+	@Benchmark
+	public double getBranchCoverage() {
+		return analysis.getBranchCoverage();
+	}
+}
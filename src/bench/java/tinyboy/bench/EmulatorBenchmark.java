@@ -0,0 +1,88 @@
+package tinyboy.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javr.core.AVR.HaltedException;
+import tinyboy.core.TinyBoyEmulator;
+
+/**
+ * Measures the raw speed of the emulator on each ROM, and the cost of reading
+ * the display. Throughput is reported in emulated cycles (or frames) per
+ * second.
+ *
+ * @author David J. Pearce
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmulatorBenchmark {
+	/**
+	 * Number of cycles executed by each invocation.
+	 */
+	private static final int CYCLES = 10_000;
+
+	@Param({ "fader", "snake", "sokoban", "tetris" })
+	public String rom;
+
+	@Param({ "false", "true" })
+	public boolean fastForward;
+
+	private TinyBoyEmulator tinyBoy;
+
+	private final long[] frame = new long[TinyBoyEmulator.FRAME_SIZE];
+
+	@Setup
+	public void setup() throws IOException, HaltedException {
+		tinyBoy = new TinyBoyEmulator();
+		tinyBoy.upload(Roms.load(rom));
+		tinyBoy.setFastForward(fastForward);
+		tinyBoy.reset();
+		// Run past start up, so the display has something on it.
+		for (int i = 0; i != 1_000_000; ++i) {
+			tinyBoy.clock();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CYCLES)
+	public long clock() throws HaltedException {
+		for (int i = 0; i != CYCLES; ++i) {
+			tinyBoy.clock();
+		}
+		return tinyBoy.getCycles();
+	}
+
+	@Benchmark
+	public void scanPixels(Blackhole bh) {
+		for (int y = 0; y != TinyBoyEmulator.DISPLAY_HEIGHT; ++y) {
+			for (int x = 0; x != TinyBoyEmulator.DISPLAY_WIDTH; ++x) {
+				bh.consume(tinyBoy.isPixelSet(x, y));
+			}
+		}
+	}
+
+	@Benchmark
+	public long[] readFrame() {
+		tinyBoy.readFrame(frame);
+		return frame;
+	}
+}
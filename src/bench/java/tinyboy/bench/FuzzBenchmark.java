@@ -0,0 +1,136 @@
+package tinyboy.bench;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javr.io.HexFile;
+import tinyboy.core.ControlPad;
+import tinyboy.core.TinyBoyInputSequence;
+import tinyboy.util.AutomatedTester;
+import tinyboy.util.CoverageAnalysis;
+
+/**
+ * Measures the number of inputs per second which can be fuzz tested, for
+ * varying numbers of worker threads. Each invocation tests a fixed batch of
+ * random inputs, each of which is limited to a fixed number of cycles. Every
+ * invocation uses a fresh tester, so that no caches or coverage carry over
+ * between them, and the cost of constructing it is not measured.
+ *
+ * @author David J. Pearce
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FuzzBenchmark {
+	/**
+	 * Number of inputs tested by each invocation.
+	 */
+	private static final int INPUTS = 256;
+	/**
+	 * Maximum number of cycles for each input.
+	 */
+	private static final long BUDGET = 2_000_000;
+
+	@Param({ "snake", "tetris" })
+	public String rom;
+
+	@Param({ "1", "2", "4" })
+	public int threads;
+
+	private HexFile firmware;
+
+	private AutomatedTester<TinyBoyInputSequence> tester;
+
+	private CoverageAnalysis analysis;
+
+	private final Generator generator = new Generator();
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		firmware = Roms.load(rom);
+	}
+
+	@Setup(Level.Invocation)
+	public void setup() {
+		tester = new AutomatedTester<>(firmware, generator, false, threads, 16);
+		tester.setCycleBudget(BUDGET);
+		tester.setReporter(metrics -> {
+		});
+		analysis = new CoverageAnalysis(firmware);
+		generator.remaining = INPUTS;
+	}
+
+	@TearDown(Level.Invocation)
+	public void teardown() {
+		tester.destroy();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(INPUTS)
+	public CoverageAnalysis fuzzTest() throws InterruptedException, ExecutionException {
+		// NOTE: target cannot be reached, so every input is tested.
+		return tester.run(analysis, 101.0);
+	}
+
+	/**
+	 * Generates short random inputs, ignoring their results.
+	 */
+	private static final class Generator implements AutomatedTester.InputGenerator<TinyBoyInputSequence> {
+		private static final ControlPad.Button[] BUTTONS = ControlPad.Button.values();
+		private final Random random = new Random(0);
+		private int remaining;
+
+		@Override
+		public @Nullable TinyBoyInputSequence generate() {
+			remaining = remaining - 1;
+			ControlPad.Button[] pulses = new ControlPad.Button[32];
+			for (int i = 0; i != pulses.length; ++i) {
+				int b = random.nextInt(BUTTONS.length + 1);
+				pulses[i] = b == BUTTONS.length ? null : BUTTONS[b];
+			}
+			return new TinyBoyInputSequence(pulses);
+		}
+
+		@Override
+		public void record(@NonNull TinyBoyInputSequence input, AutomatedTester.@NonNull Result result) {
+		}
+
+		@Override
+		public void record(@NonNull TinyBoyInputSequence input, @NonNull BitSet output, byte @NonNull [] state) {
+		}
+
+		@Override
+		public boolean needsState() {
+			return false;
+		}
+
+		@Override
+		public boolean hasMore() {
+			return remaining > 0;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package tinyboy.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tinyboy.core.ControlPad;
+import tinyboy.core.TinyBoyInputSequence;
+
+/**
+ * Measures the cost of building input sequences by appending pulses, and of
+ * reading them back as the buttons would.
+ *
+ * @author David J. Pearce
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputSequenceBenchmark {
+	@Param({ "16", "256", "4096" })
+	public int length;
+
+	private ControlPad.Button[] pulses;
+
+	private TinyBoyInputSequence sequence;
+
+	@Setup
+	public void setup() {
+		ControlPad.Button[] buttons = ControlPad.Button.values();
+		Random random = new Random(0);
+		pulses = new ControlPad.Button[length];
+		for (int i = 0; i != length; ++i) {
+			int b = random.nextInt(buttons.length + 1);
+			pulses[i] = b == buttons.length ? null : buttons[b];
+		}
+		sequence = new TinyBoyInputSequence(pulses);
+	}
+
+	@Benchmark
+	public TinyBoyInputSequence append() {
+		TinyBoyInputSequence r = new TinyBoyInputSequence();
+		for (int i = 0; i != pulses.length; ++i) {
+			r = r.append(pulses[i]);
+		}
+		return r;
+	}
+
+	@Benchmark
+	public int iterate() {
+		sequence.seek(0);
+		int count = 0;
+		while (sequence.hasNext()) {
+			count += sequence.getAsBoolean() ? 1 : 0;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,56 @@
+package tinyboy.bench;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import javr.io.HexFile;
+
+/**
+ * Locates the ROMs used by the benchmarks. By default, these are loaded from
+ * the classpath under <code>/roms/</code>, having been copied into
+ * <code>src/bench/resources/roms</code> from <code>ROMS/</code> (i.e. by
+ * running <code>make install</code> there). A directory to load them from
+ * instead can be given using the <code>tinyboy.roms</code> system property.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class Roms {
+	public static final String DIRECTORY = System.getProperty("tinyboy.roms");
+
+	/**
+	 * The classpath location of the ROMs, when no directory is given.
+	 */
+	public static final String RESOURCES = "/roms/";
+
+	/**
+	 * Load the ROM with a given name (e.g. "snake").
+	 *
+	 * @param name
+	 * @return
+	 * @throws IOException
+	 */
+	public static HexFile load(String name) throws IOException {
+		if (DIRECTORY != null) {
+			File file = new File(DIRECTORY, name + ".hex");
+			if (!file.exists()) {
+				throw new IOException("missing " + file);
+			}
+			try (FileReader reader = new FileReader(file)) {
+				return new HexFile.Reader(reader).readAll();
+			}
+		}
+		InputStream in = Roms.class.getResourceAsStream(RESOURCES + name + ".hex");
+		if (in == null) {
+			throw new IOException("missing " + RESOURCES + name + ".hex on classpath (run make install in ROMS)");
+		}
+		try (Reader reader = new InputStreamReader(in, StandardCharsets.US_ASCII)) {
+			return new HexFile.Reader(reader).readAll();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package tinyboy;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import javax.management.JMException;
+
+import javr.core.AVR.HaltedException;
+import javr.io.HexFile;
+import tinyboy.core.InputSource;
+import tinyboy.core.SymbolicPullWire;
+import tinyboy.core.TinyBoyEmulator;
+import tinyboy.core.TinyBoyInputSequence;
+import tinyboy.util.AutomatedTester;
+import tinyboy.util.CoverageAnalysis;
+import tinyboy.util.CoverageGuidedGenerator;
+
+/**
+ * Runs a firmware on the TinyBoy without any graphical display, and reports
+ * how quickly it was emulated along with the final state reached. This is
+ * useful for performance tracking, and for running on machines without a
+ * display. For example:
+ *
+ * <pre>
+ * java tinyboy.Headless -input LLRR_ -cycles 16000000 snake.hex
+ * </pre>
+ *
+ * Alternatively, a coverage-guided fuzzing campaign can be run until a given
+ * branch coverage is reached, in which case <code>-cycles</code> limits each
+ * test. The metrics of the campaign can be exposed over JMX under a given
+ * name, for viewing in (e.g.) JConsole:
+ *
+ * <pre>
+ * java tinyboy.Headless -fuzz 90 -jmx snake -cycles 16000000 snake.hex
+ * </pre>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class Headless {
+	/**
+	 * Number of cycles to run for when neither a cycle count nor an input is
+	 * given, which corresponds to ten seconds at 16MHz.
+	 */
+	private static final long DEFAULT_CYCLES = 160_000_000L;
+	/**
+	 * Number of inputs handed to each worker at a time when fuzzing.
+	 */
+	private static final int BATCH_SIZE = 16;
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException, JMException {
+		String input = null;
+		long limit = -1;
+		boolean fastForward = false;
+		double target = -1;
+		String jmx = null;
+		String file = null;
+		for (int i = 0; i != args.length; ++i) {
+			switch (args[i]) {
+			case "-input":
+				input = args[++i];
+				break;
+			case "-cycles":
+				limit = Long.parseLong(args[++i]);
+				break;
+			case "-fastforward":
+				fastForward = true;
+				break;
+			case "-fuzz":
+				target = Double.parseDouble(args[++i]);
+				break;
+			case "-jmx":
+				jmx = args[++i];
+				break;
+			default:
+				file = args[i];
+			}
+		}
+		if (file == null) {
+			System.err.println("usage: Headless [-input <pulses>] [-cycles <n>] [-fastforward] <file.hex>");
+			System.err.println("       Headless -fuzz <coverage> [-jmx <name>] [-cycles <n>] [-fastforward] <file.hex>");
+			System.exit(1);
+			return;
+		}
+		if (target >= 0) {
+			fuzz(file, target, jmx, limit, fastForward);
+			return;
+		}
+		if (limit < 0) {
+			limit = input != null ? Long.MAX_VALUE : DEFAULT_CYCLES;
+		}
+		// Construct emulator with buttons driven by the input sequence
+		SymbolicPullWire[] wires = SymbolicPullWire.createButtons();
+		TinyBoyEmulator tinyBoy = new TinyBoyEmulator(labels -> SymbolicPullWire.select(wires, labels));
+		try (FileReader reader = new FileReader(file)) {
+			tinyBoy.upload(new HexFile.Reader(reader).readAll());
+		}
+		tinyBoy.setFastForward(fastForward);
+		tinyBoy.reset();
+		TinyBoyInputSequence sequence = input != null ? TinyBoyInputSequence.parse(input) : null;
+		SymbolicPullWire.bind(wires, sequence != null ? sequence : InputSource.EMPTY);
+		//
+		long frames = tinyBoy.getFrameVersion();
+		boolean halted = false;
+		long start = System.nanoTime();
+		try {
+			while (tinyBoy.getCycles() < limit && (sequence == null || sequence.hasNext())) {
+				tinyBoy.clock();
+			}
+		} catch (HaltedException e) {
+			halted = true;
+		}
+		long time = System.nanoTime() - start;
+		frames = tinyBoy.getFrameVersion() - frames;
+		//
+		long cycles = tinyBoy.getCycles();
+		System.out.println("cycles: " + cycles + (halted ? " (halted)" : ""));
+		System.out.println("time: " + (time / 1_000_000) + "ms");
+		System.out.println("speed: " + String.format("%.2f", (cycles * 1000.0) / time) + "MHz");
+		System.out.println("frames: " + frames);
+		System.out.println("frame hash: " + String.format("%016x", tinyBoy.getFrameHash()));
+		System.out.println("state hash: " + String.format("%016x", tinyBoy.getStateHash()));
+	}
+
+	/**
+	 * Run a coverage-guided fuzzing campaign on a given firmware until a given
+	 * branch coverage is reached, and report the coverage achieved.
+	 *
+	 * @param file
+	 * @param target
+	 *            The target branch coverage (as a percentage).
+	 * @param jmx
+	 *            The name under which to expose metrics over JMX, or
+	 *            <code>null</code> if they should not be exposed.
+	 * @param budget
+	 *            The maximum number of cycles for each test, or negative if
+	 *            unlimited.
+	 * @param fastForward
+	 */
+	private static void fuzz(String file, double target, String jmx, long budget, boolean fastForward)
+			throws IOException, InterruptedException, ExecutionException, JMException {
+		HexFile firmware;
+		try (FileReader reader = new FileReader(file)) {
+			firmware = new HexFile.Reader(reader).readAll();
+		}
+		int nthreads = Runtime.getRuntime().availableProcessors();
+		CoverageGuidedGenerator generator = new CoverageGuidedGenerator(Long.MAX_VALUE, 0);
+		AutomatedTester<TinyBoyInputSequence> tester = new AutomatedTester<>(firmware, generator, false, nthreads,
+				BATCH_SIZE);
+		try {
+			if (budget >= 0) {
+				tester.setCycleBudget(budget);
+			}
+			tester.setFastForward(fastForward);
+			if (jmx != null) {
+				tester.getMetrics().register(jmx);
+			}
+			CoverageAnalysis analysis = tester.run(target);
+			System.out.println("instruction coverage: " + String.format("%.2f", analysis.getInstructionCoverage()) + "%");
+			System.out.println("branch coverage: " + String.format("%.2f", analysis.getBranchCoverage()) + "%");
+			System.out.println("corpus: " + generator.getCorpus().size() + " inputs");
+		} finally {
+			tester.destroy();
+		}
+	}
+}
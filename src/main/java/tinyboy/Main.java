@@ -1,12 +1,16 @@
 package tinyboy;
 
+import java.io.FileReader;
 import java.io.IOException;
 
+import javr.io.HexFile;
+
 import javrsim.peripherals.JPeripheral;
 import javrsim.views.CodeView;
 import javrsim.views.DataView;
 import javrsim.views.JAvrView;
 import javrsim.windows.SimulationWindow;
+import tinyboy.core.RealTimeSimulation;
 import tinyboy.core.TinyBoyEmulator;
 import tinyboy.views.TinyBoyPeripheral;
 
@@ -33,6 +37,17 @@ public class Main {
 	public static void main(String[] args) throws IOException {
 		// Construct the tinyBoy emulator
 		TinyBoyEmulator tinyBoy = new TinyBoyEmulator();
+		if (args.length == 2 && args[0].equals("-realtime")) {
+			// Run firmware at native speed on its own thread, without the simulator
+			try (FileReader reader = new FileReader(args[1])) {
+				tinyBoy.upload(new HexFile.Reader(reader).readAll());
+			}
+			tinyBoy.reset();
+			RealTimeSimulation simulation = new RealTimeSimulation(tinyBoy);
+			new TinyBoyPeripheral(simulation, TinyBoyPeripheral.DEFAULT_FRAME_RATE);
+			simulation.start();
+			return;
+		}
 		// Construct the main simulation window
 		SimulationWindow sim = new SimulationWindow(tinyBoy.getAVR(), PERIPHERALS, VIEWS);
 		// Finally, construct the TinyBoy view
@@ -0,0 +1,232 @@
+package tinyboy.core;
+
+import javr.core.AVR;
+
+/**
+ * Describes a software delay loop, such as those generated by avr-gcc for
+ * <code>_delay_ms()</code>. Such a loop simply counts a register (or group of
+ * registers) down to zero, and has no other effect. The following forms are
+ * recognised, where the loop head is the first instruction:
+ *
+ * <pre>
+ * 1: subi rA,1 ; sbci rB,0 ; ... ; brne 1b
+ * 1: sbiw rA,1 ; brne 1b
+ * 1: dec rA ; brne 1b
+ * </pre>
+ *
+ * Since every iteration (other than the last) has an identical effect, the
+ * loop can be fast-forwarded by writing the counter directly. A loop entered
+ * with a counter of zero wraps around, and so runs for the maximum number of
+ * iterations (e.g. 256 for a single register). Instructions are recognised
+ * from their raw encoding, as this avoids reading flash through any
+ * instrumentation.
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class DelayLoop {
+	/**
+	 * Address of the status register in data memory.
+	 */
+	private static final int SREG = 0x5F;
+	/**
+	 * The global interrupt enable bit of the status register.
+	 */
+	private static final int SREG_I = 0x80;
+	/**
+	 * The maximum number of registers in a counter.
+	 */
+	private static final int MAX_REGISTERS = 4;
+	/**
+	 * The (word) address of the loop head.
+	 */
+	private final int head;
+	/**
+	 * The number of words in the loop body, including the branch back to the
+	 * head.
+	 */
+	private final int size;
+	/**
+	 * The registers making up the counter, from least to most significant.
+	 */
+	private final int[] registers;
+	/**
+	 * The number of clocks taken by one iteration of the loop (other than the
+	 * last), or zero if this is not yet known.
+	 */
+	private long clocks;
+
+	private DelayLoop(int head, int size, int[] registers) {
+		this.head = head;
+		this.size = size;
+		this.registers = registers;
+	}
+
+	/**
+	 * Check whether a given (word) address lies within this loop.
+	 *
+	 * @param pc
+	 * @return
+	 */
+	public boolean contains(int pc) {
+		return pc >= head && pc < head + size;
+	}
+
+	/**
+	 * Get the number of clocks taken by one iteration of this loop, or zero if not
+	 * yet known.
+	 *
+	 * @return
+	 */
+	public long getClocks() {
+		return clocks;
+	}
+
+	public void setClocks(long clocks) {
+		this.clocks = clocks;
+	}
+
+	/**
+	 * Read the current value of the loop counter.
+	 *
+	 * @param data
+	 * @return
+	 */
+	public long getCounter(AVR.Memory data) {
+		long c = 0;
+		for (int i = registers.length - 1; i >= 0; --i) {
+			c = (c << 8) | (data.peek(registers[i]) & 0xFF);
+		}
+		return c;
+	}
+
+	/**
+	 * Determine the number of iterations remaining when the loop head is reached
+	 * with the current value of the counter. This is the counter itself, unless
+	 * it is zero in which case the counter wraps around.
+	 *
+	 * @param data
+	 * @return
+	 */
+	public long getIterations(AVR.Memory data) {
+		long c = getCounter(data);
+		return c != 0 ? c : 1L << (8 * registers.length);
+	}
+
+	/**
+	 * Write a new value for the loop counter.
+	 *
+	 * @param data
+	 * @param value
+	 */
+	public void setCounter(AVR.Memory data, long value) {
+		for (int i = 0; i != registers.length; ++i) {
+			data.write(registers[i], (byte) value);
+			value = value >>> 8;
+		}
+	}
+
+	/**
+	 * Check whether interrupts are currently enabled. A loop cannot be
+	 * fast-forwarded in this case, since an interrupt could occur part way
+	 * through.
+	 *
+	 * @param data
+	 * @return
+	 */
+	public static boolean interruptsEnabled(AVR.Memory data) {
+		return (data.peek(SREG) & SREG_I) != 0;
+	}
+
+	/**
+	 * Determine whether a delay loop begins at a given (word) address in flash.
+	 * If so, return a description of it, otherwise return <code>null</code>.
+	 *
+	 * @param code
+	 * @param pc
+	 * @return
+	 */
+	public static DelayLoop decode(AVR.Memory code, int pc) {
+		int first = fetch(code, pc);
+		if (first < 0) {
+			return null;
+		} else if ((first & 0xFF0F) == 0x9701 && (first & 0x00C0) == 0) {
+			// sbiw rA,1
+			int rd = 24 + ((first >> 4) & 0x3) * 2;
+			return isLoopBack(code, pc + 1, pc) ? new DelayLoop(pc, 2, new int[] { rd, rd + 1 }) : null;
+		} else if ((first & 0xFE0F) == 0x940A) {
+			// dec rA
+			int rd = (first >> 4) & 0x1F;
+			return isLoopBack(code, pc + 1, pc) ? new DelayLoop(pc, 2, new int[] { rd }) : null;
+		} else if (isImmediate(first, 0x5000, 1)) {
+			// subi rA,1 followed by zero or more sbci rB,0
+			int[] registers = new int[MAX_REGISTERS];
+			int n = 0;
+			int insn = first;
+			do {
+				int rd = 16 + ((insn >> 4) & 0xF);
+				for (int i = 0; i != n; ++i) {
+					if (registers[i] == rd) {
+						return null;
+					}
+				}
+				registers[n++] = rd;
+				insn = fetch(code, pc + n);
+			} while (n != MAX_REGISTERS && isImmediate(insn, 0x4000, 0));
+			if (isLoopBack(code, pc + n, pc)) {
+				int[] r = new int[n];
+				System.arraycopy(registers, 0, r, 0, n);
+				return new DelayLoop(pc, n + 1, r);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Check whether an instruction is an immediate instruction with a given
+	 * opcode and immediate value (e.g. <code>subi rA,1</code>).
+	 *
+	 * @param insn
+	 * @param opcode
+	 * @param k
+	 * @return
+	 */
+	private static boolean isImmediate(int insn, int opcode, int k) {
+		return insn >= 0 && (insn & 0xF000) == opcode && (((insn >> 4) & 0xF0) | (insn & 0xF)) == k;
+	}
+
+	/**
+	 * Check whether the instruction at a given address is <code>brne</code> back
+	 * to a given target.
+	 *
+	 * @param code
+	 * @param pc
+	 * @param target
+	 * @return
+	 */
+	private static boolean isLoopBack(AVR.Memory code, int pc, int target) {
+		int insn = fetch(code, pc);
+		if (insn < 0 || (insn & 0xFC07) != 0xF401) {
+			return false;
+		}
+		// Sign extend the 7-bit offset
+		int k = (insn << 22) >> 25;
+		return pc + 1 + k == target;
+	}
+
+	/**
+	 * Read the instruction word at a given (word) address, or -1 if this is out of
+	 * bounds.
+	 *
+	 * @param code
+	 * @param pc
+	 * @return
+	 */
+	private static int fetch(AVR.Memory code, int pc) {
+		int address = pc << 1;
+		if (pc < 0 || address + 1 >= code.size()) {
+			return -1;
+		}
+		return (code.peek(address) & 0xFF) | ((code.peek(address + 1) & 0xFF) << 8);
+	}
+}
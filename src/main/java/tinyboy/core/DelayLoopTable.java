@@ -0,0 +1,47 @@
+package tinyboy.core;
+
+import javr.core.AVR;
+
+/**
+ * Records the delay loop (if any) beginning at each (word) address in flash.
+ * Since the TinyBoy never writes to flash, its contents only change when
+ * firmware is uploaded or a snapshot restored, at which point the table is
+ * filled again. Thus, checking for a delay loop whilst fast-forwarding costs a
+ * single array access.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class DelayLoopTable {
+	/**
+	 * The delay loop beginning at each address, or <code>null</code> if there is
+	 * none.
+	 */
+	private DelayLoop[] loops = new DelayLoop[0];
+
+	/**
+	 * Match delay loops at every address in flash. Loops are recognised from
+	 * their raw encoding, so this does not read flash through any
+	 * instrumentation.
+	 *
+	 * @param code
+	 */
+	public void fill(AVR.Memory code) {
+		final int n = code.size() / 2;
+		this.loops = new DelayLoop[n];
+		for (int pc = 0; pc != n; ++pc) {
+			loops[pc] = DelayLoop.decode(code, pc);
+		}
+	}
+
+	/**
+	 * Get the delay loop beginning at a given (word) address, or
+	 * <code>null</code> if there is none.
+	 *
+	 * @param pc
+	 * @return
+	 */
+	public DelayLoop getDelayLoop(int pc) {
+		return pc >= 0 && pc < loops.length ? loops[pc] : null;
+	}
+}
@@ -0,0 +1,68 @@
+package tinyboy.core;
+
+import java.util.Iterator;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Represents a source of input values for the TinyBoy, where each value is
+ * read by the micro-controller from one of the button wires. Values are
+ * returned as primitives so that reading them does not allocate.
+ *
+ * @author David J. Pearce
+ *
+ */
+public interface InputSource extends BooleanSupplier {
+	/**
+	 * An input source which has no values. Reading from this always returns
+	 * <code>false</code>.
+	 */
+	public static final InputSource EMPTY = new InputSource() {
+		@Override
+		public boolean hasNext() {
+			return false;
+		}
+
+		@Override
+		public boolean getAsBoolean() {
+			return false;
+		}
+	};
+
+	/**
+	 * Check whether there are any remaining input values.
+	 *
+	 * @return
+	 */
+	public boolean hasNext();
+
+	/**
+	 * Read the next input value. If there are no remaining values, this returns
+	 * <code>false</code>.
+	 */
+	@Override
+	public boolean getAsBoolean();
+
+	/**
+	 * Adapt a given iterator into an input source. If the iterator is already an
+	 * input source, it is returned as is.
+	 *
+	 * @param iterator
+	 * @return
+	 */
+	public static InputSource of(final Iterator<Boolean> iterator) {
+		if (iterator instanceof InputSource) {
+			return (InputSource) iterator;
+		}
+		return new InputSource() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public boolean getAsBoolean() {
+				return iterator.hasNext() && iterator.next();
+			}
+		};
+	}
+}
@@ -0,0 +1,212 @@
+package tinyboy.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import javr.core.AVR.HaltedException;
+
+/**
+ * Runs a TinyBoy on a dedicated thread at the speed of the real hardware.
+ * Cycles are executed in batches and, after each batch, the thread sleeps
+ * until the wall clock catches up with the emulated clock. Completed frames
+ * are handed to a consumer (e.g. the GUI) without locking, and button events
+ * are passed back through a lock-free queue. Thus, neither side ever waits for
+ * the other.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class RealTimeSimulation implements Runnable {
+	/**
+	 * The clock rate of the TinyBoy in Hz (see <code>CLOCK</code> in
+	 * <code>ROMS/makefile</code>).
+	 */
+	public static final long CLOCK_RATE = 16_000_000L;
+	/**
+	 * The number of cycles executed between checks of the wall clock, which
+	 * corresponds to one millisecond of emulated time.
+	 */
+	private static final int BATCH_SIZE = (int) (CLOCK_RATE / 1000);
+	/**
+	 * If the simulation falls this far behind the wall clock (in nanoseconds),
+	 * then it gives up trying to catch up. This prevents a burst of full speed
+	 * execution after (for example) a garbage collection pause.
+	 */
+	private static final long MAX_LAG = 100_000_000L;
+	/**
+	 * Events for pressing and releasing each button. Since these are immutable,
+	 * they are reused rather than allocated for each event.
+	 */
+	private static final ButtonEvent[] PRESSED = events(true);
+	private static final ButtonEvent[] RELEASED = events(false);
+
+	private final TinyBoyEmulator tinyBoy;
+	/**
+	 * Button events waiting to be applied by the simulation thread.
+	 */
+	private final ConcurrentLinkedQueue<ButtonEvent> events = new ConcurrentLinkedQueue<>();
+	/**
+	 * The buttons currently held, as requested by the consumer, packed one bit
+	 * per button.
+	 */
+	private final AtomicInteger buttons = new AtomicInteger();
+	/**
+	 * The most recently completed frame which has not yet been taken by the
+	 * consumer. Frames are exchanged with this, rather than copied under a lock.
+	 */
+	private final AtomicReference<Frame> ready = new AtomicReference<>(new Frame());
+	/**
+	 * The frame being written by the simulation thread.
+	 */
+	private Frame back = new Frame();
+	/**
+	 * The frame most recently taken by the consumer.
+	 */
+	private Frame front = new Frame();
+	private volatile boolean running;
+	private Thread thread;
+
+	public RealTimeSimulation(TinyBoyEmulator tinyBoy) {
+		this.tinyBoy = tinyBoy;
+	}
+
+	public TinyBoyEmulator getTinyBoy() {
+		return tinyBoy;
+	}
+
+	/**
+	 * Start the simulation thread. This has no effect if it is already running.
+	 */
+	public synchronized void start() {
+		if (thread == null) {
+			running = true;
+			thread = new Thread(this, "TinyBoy");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stop the simulation thread, and wait for it to finish.
+	 *
+	 * @throws InterruptedException
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if (thread != null) {
+			running = false;
+			thread.join();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Press or release a given button. This can be called from any thread, and
+	 * takes effect before the next batch of cycles is executed.
+	 *
+	 * @param button
+	 * @param value
+	 */
+	public void setButtonState(ControlPad.Button button, boolean value) {
+		int bit = 1 << button.ordinal();
+		int b;
+		do {
+			b = buttons.get();
+		} while (!buttons.compareAndSet(b, value ? (b | bit) : (b & ~bit)));
+		events.add(value ? PRESSED[button.ordinal()] : RELEASED[button.ordinal()]);
+	}
+
+	/**
+	 * Check whether a given button is currently held.
+	 *
+	 * @param button
+	 * @return
+	 */
+	public boolean getButtonState(ControlPad.Button button) {
+		return (buttons.get() & (1 << button.ordinal())) != 0;
+	}
+
+	/**
+	 * Copy the most recently completed frame into a given array, packed one bit
+	 * per pixel (see <code>TinyBoyEmulator.readFrame()</code>). This must only be
+	 * called from a single consumer thread (e.g. the Swing event dispatch
+	 * thread).
+	 *
+	 * @param dst
+	 *            Array of at least <code>TinyBoyEmulator.FRAME_SIZE</code> longs.
+	 * @return The version of the frame copied.
+	 */
+	public long readFrame(long[] dst) {
+		if (ready.get().version > front.version) {
+			front = ready.getAndSet(front);
+		}
+		System.arraycopy(front.pixels, 0, dst, 0, front.pixels.length);
+		return front.version;
+	}
+
+	@Override
+	public void run() {
+		long start = System.nanoTime();
+		long base = tinyBoy.getCycles();
+		long version = tinyBoy.getFrameVersion();
+		try {
+			while (running) {
+				// Apply any button events
+				ButtonEvent e;
+				while ((e = events.poll()) != null) {
+					tinyBoy.setButtonState(e.button, e.value);
+				}
+				for (int i = 0; i != BATCH_SIZE; ++i) {
+					tinyBoy.clock();
+				}
+				// Publish frame if it has changed
+				if (tinyBoy.getFrameVersion() != version) {
+					version = tinyBoy.readFrame(back.pixels);
+					back.version = version;
+					back = ready.getAndSet(back);
+				}
+				// Wait for wall clock to catch up
+				long target = start + ((tinyBoy.getCycles() - base) * 1_000_000_000L) / CLOCK_RATE;
+				long delay = target - System.nanoTime();
+				if (delay > 0) {
+					LockSupport.parkNanos(delay);
+				} else if (delay < -MAX_LAG) {
+					// Too far behind, so resynchronise
+					start = System.nanoTime();
+					base = tinyBoy.getCycles();
+				}
+			}
+		} catch (HaltedException e) {
+			// Firmware has halted, so simulation is complete.
+			running = false;
+		}
+	}
+
+	private static ButtonEvent[] events(boolean value) {
+		ControlPad.Button[] buttons = ControlPad.Button.values();
+		ButtonEvent[] r = new ButtonEvent[buttons.length];
+		for (int i = 0; i != buttons.length; ++i) {
+			r[i] = new ButtonEvent(buttons[i], value);
+		}
+		return r;
+	}
+
+	private static final class ButtonEvent {
+		private final ControlPad.Button button;
+		private final boolean value;
+
+		public ButtonEvent(ControlPad.Button button, boolean value) {
+			this.button = button;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * A frame exchanged between the simulation thread and the consumer.
+	 */
+	private static final class Frame {
+		private final long[] pixels = new long[TinyBoyEmulator.FRAME_SIZE];
+		private long version = -1;
+	}
+}
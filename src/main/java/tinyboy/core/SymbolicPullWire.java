@@ -0,0 +1,123 @@
+package tinyboy.core;
+
+import javr.core.Wire;
+import javr.util.IdealWire;
+
+/**
+ * A wire whose value is pulled from an input source each time it is read,
+ * rather than being driven. This is used to connect the buttons of the TinyBoy
+ * to a sequence of inputs (e.g. one generated for testing), such that each
+ * read of a button consumes the next input.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SymbolicPullWire implements Wire {
+	private final String[] labels;
+	private InputSource input;
+
+	public SymbolicPullWire(String... labels) {
+		this.labels = labels;
+		// Default input
+		this.input = InputSource.EMPTY;
+	}
+
+	public void bind(InputSource input) {
+		this.input = input;
+	}
+
+	@Override
+	public String[] getLabels() {
+		return labels;
+	}
+
+	@Override
+	public boolean hasLabel(String label) {
+		for(int i=0;i!=labels.length;++i) {
+			if(labels[i].equals(label)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean read() {
+		return input.getAsBoolean();
+	}
+
+	@Override
+	public boolean write(boolean value) {
+		return false;
+	}
+
+	@Override
+	public boolean isRising() {
+		return false;
+	}
+
+	@Override
+	public boolean clock() {
+		// No-op, since there is no driven value to latch. Instead, the value is
+		// pulled from the input on each read.
+		return false;
+	}
+
+	@Override
+	public void reset() {
+		// no-op
+	}
+
+	/**
+	 * Create a wire for each button of the TinyBoy, indexed by the ordinal of the
+	 * button.
+	 *
+	 * @return
+	 */
+	public static SymbolicPullWire[] createButtons() {
+		SymbolicPullWire[] wires = new SymbolicPullWire[4];
+		wires[ControlPad.Button.UP.ordinal()] = new SymbolicPullWire("PB1", "MISO", "DO", "AIN1", "OC0B", "OC1A", "PCINT1");
+		wires[ControlPad.Button.DOWN.ordinal()] = new SymbolicPullWire("PB3", "PCINT3", "XTAL1", "CLK1", "!OC1B", "ADC3");
+		wires[ControlPad.Button.LEFT.ordinal()] = new SymbolicPullWire("PB4", "PCINT4", "XTAL2", "CLK0", "OC1B", "ADC2");
+		wires[ControlPad.Button.RIGHT.ordinal()] = new SymbolicPullWire("PB5", "PCINT5", "!RESET", "ADC0", "dW");
+		return wires;
+	}
+
+	/**
+	 * Select the wire for a given pin of the micro-controller. The pins connected
+	 * to buttons are given the corresponding button wire, whilst all others are
+	 * given a fresh wire. This is intended for use as the wire factory of a
+	 * <code>TinyBoyEmulator</code>.
+	 *
+	 * @param wires
+	 *            Button wires created by <code>createButtons()</code>.
+	 * @param labels
+	 * @return
+	 */
+	public static Wire select(SymbolicPullWire[] wires, String[] labels) {
+		switch(labels[0]) {
+		case "PB1": // Up
+			return wires[ControlPad.Button.UP.ordinal()];
+		case "PB3": // Down
+			return wires[ControlPad.Button.DOWN.ordinal()];
+		case "PB4": // Left
+			return wires[ControlPad.Button.LEFT.ordinal()];
+		case "PB5": // Right
+			return wires[ControlPad.Button.RIGHT.ordinal()];
+		default:
+			return new IdealWire(labels);
+		}
+	}
+
+	/**
+	 * Bind every button wire to a given input source.
+	 *
+	 * @param wires
+	 * @param input
+	 */
+	public static void bind(SymbolicPullWire[] wires, InputSource input) {
+		for(int i=0;i!=wires.length;++i) {
+			wires[i].bind(input);
+		}
+	}
+}
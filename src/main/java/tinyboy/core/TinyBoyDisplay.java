@@ -0,0 +1,258 @@
+package tinyboy.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javr.core.AvrPeripheral;
+import javr.core.Wire;
+
+/**
+ * Represents the dot-matrix display on the TinyBoy. The display is driven over
+ * a simple serial interface, where each rising edge on the clock wire shifts
+ * the value of the data wire into the next pixel. Pixels are filled row by row
+ * from the top-left corner, and the position wraps around once a complete
+ * frame has been written. Unlike a general purpose display, the pixels are
+ * held in a packed form (i.e. one bit per pixel) and the complete state of the
+ * display can be saved and restored.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class TinyBoyDisplay implements AvrPeripheral {
+	/**
+	 * Index of the serial clock wire.
+	 */
+	private static final int SCK = 0;
+	/**
+	 * Index of the serial data wire.
+	 */
+	private static final int MOSI = 1;
+	/**
+	 * Width of the display in pixels.
+	 */
+	private final int width;
+	/**
+	 * Height of the display in pixels.
+	 */
+	private final int height;
+	/**
+	 * Wires connecting the display to the micro-controller. These are SCK, MOSI,
+	 * MISO and SS (in that order).
+	 */
+	private final Wire[] wires;
+	/**
+	 * The pixels of the display, packed one bit per pixel.
+	 */
+	private final long[] pixels;
+	/**
+	 * The rows containing a pixel which has changed since they were last read,
+	 * packed one bit per row. These are set by the thread clocking the display,
+	 * and swapped out by whichever thread is painting it. Hence, they are updated
+	 * atomically so that no change is lost in between.
+	 */
+	private final AtomicLongArray dirty;
+	/**
+	 * The number of frames completed so far. This also increases whenever the
+	 * display is reset or restored and, hence, never goes backwards.
+	 */
+	private long version;
+	/**
+	 * The pixel which will be written by the next rising edge on the clock.
+	 */
+	private int position;
+	/**
+	 * The value of the clock wire when last sampled. This is used to detect a
+	 * rising edge.
+	 */
+	private boolean clk;
+
+	public TinyBoyDisplay(int width, int height, Wire[] wires) {
+		this.width = width;
+		this.height = height;
+		this.wires = wires;
+		this.pixels = new long[((width * height) + 63) >>> 6];
+		this.dirty = new AtomicLongArray((height + 63) >>> 6);
+	}
+
+	@Override
+	public Wire[] getWires() {
+		return wires;
+	}
+
+	/**
+	 * Get the width of the display in pixels.
+	 *
+	 * @return
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of the display in pixels.
+	 *
+	 * @return
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Check whether a given pixel is set or not.
+	 *
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public boolean isSet(int x, int y) {
+		int p = (y * width) + x;
+		return (pixels[p >>> 6] & (1L << p)) != 0;
+	}
+
+	/**
+	 * Get the number of longs needed to hold a frame.
+	 *
+	 * @return
+	 */
+	public int getFrameSize() {
+		return pixels.length;
+	}
+
+	/**
+	 * Get the current frame version. This increases each time a complete frame
+	 * has been written, and whenever the display is reset or restored. Thus, a
+	 * consumer can cheaply determine whether a new frame is available.
+	 *
+	 * @return
+	 */
+	public long getFrameVersion() {
+		return version;
+	}
+
+	/**
+	 * Copy the pixels of the display into a given array, packed one bit per pixel
+	 * in row-major order. That is, pixel <code>(x,y)</code> is bit
+	 * <code>p &amp; 63</code> of <code>dst[p &gt;&gt;&gt; 6]</code>, where
+	 * <code>p = (y * width) + x</code>.
+	 *
+	 * @param dst
+	 *            Array of at least <code>getFrameSize()</code> longs.
+	 * @return The version of the frame copied.
+	 */
+	public long readFrame(long[] dst) {
+		System.arraycopy(pixels, 0, dst, 0, pixels.length);
+		return version;
+	}
+
+	/**
+	 * Copy the set of rows which have changed since this was last called into a
+	 * given array, packed one bit per row, and then mark every row as clean. This
+	 * may be called from a different thread than that clocking the display. In
+	 * that case, the frame should be read afterwards, so any pixel written since
+	 * is either seen or leaves its row dirty for next time.
+	 *
+	 * @param dst
+	 *            Array of at least <code>(height + 63) / 64</code> longs.
+	 */
+	public void readDirtyRows(long[] dst) {
+		for (int i = 0; i != dirty.length(); ++i) {
+			dst[i] = dirty.getAndSet(i, 0L);
+		}
+	}
+
+	@Override
+	public void clock() {
+		for (int i = 0; i != wires.length; ++i) {
+			wires[i].clock();
+		}
+		boolean c = wires[SCK].read();
+		if (c && !clk) {
+			// Rising edge, so shift in next pixel
+			write(position, wires[MOSI].read());
+			position = position + 1;
+			if (position == width * height) {
+				position = 0;
+				version = version + 1;
+			}
+		}
+		clk = c;
+	}
+
+	@Override
+	public void reset() {
+		Arrays.fill(pixels, 0L);
+		position = 0;
+		clk = false;
+		invalidate();
+	}
+
+	/**
+	 * Save the current state of this display.
+	 *
+	 * @return
+	 */
+	public State save() {
+		return new State(pixels.clone(), position, clk);
+	}
+
+	/**
+	 * Restore this display to a previously saved state.
+	 *
+	 * @param state
+	 */
+	public void restore(State state) {
+		System.arraycopy(state.pixels, 0, pixels, 0, pixels.length);
+		position = state.position;
+		clk = state.clk;
+		invalidate();
+	}
+
+	/**
+	 * Mark every row as dirty and move to a new frame version, since the pixels
+	 * have changed wholesale.
+	 */
+	private void invalidate() {
+		version = version + 1;
+		for (int y = 0; y != height; ++y) {
+			markDirty(y);
+		}
+	}
+
+	private void write(int p, boolean value) {
+		long word = pixels[p >>> 6];
+		long bit = 1L << p;
+		if (((word & bit) != 0) != value) {
+			pixels[p >>> 6] = word ^ bit;
+			markDirty(p / width);
+		}
+	}
+
+	private void markDirty(int y) {
+		int i = y >>> 6;
+		long bit = 1L << y;
+		long old = dirty.get(i);
+		// NOTE: most writes are to a row which is already dirty, so avoid the
+		// compare-and-set where possible.
+		while ((old & bit) == 0 && !dirty.compareAndSet(i, old, old | bit)) {
+			old = dirty.get(i);
+		}
+	}
+
+	/**
+	 * Represents a saved state of the display.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class State {
+		private final long[] pixels;
+		private final int position;
+		private final boolean clk;
+
+		private State(long[] pixels, int position, boolean clk) {
+			this.pixels = pixels;
+			this.position = position;
+			this.clk = clk;
+		}
+	}
+}
@@ -7,7 +7,6 @@ import javr.core.AVR.HaltedException;
 import javr.core.AvrConfiguration;
 import javr.core.Wire;
 import javr.io.HexFile;
-import javr.peripherals.DotMatrixDisplay;
 import javr.util.IdealWire;
 
 /**
@@ -22,6 +21,10 @@ import javr.util.IdealWire;
 public class TinyBoyEmulator {
 	public static final int DISPLAY_WIDTH = 80;
 	public static final int DISPLAY_HEIGHT = 48;
+	/**
+	 * The number of longs needed to hold a frame, packed one bit per pixel.
+	 */
+	public static final int FRAME_SIZE = ((DISPLAY_WIDTH * DISPLAY_HEIGHT) + 63) >>> 6;
 	/**
 	 * The ATtiny85 Microcontroller which underpins the TinyBoy.
 	 */
@@ -29,11 +32,49 @@ public class TinyBoyEmulator {
 	/**
 	 * Represents the dot-matrix display on the TinyBoy.
 	 */
-	private final DotMatrixDisplay display;
+	private final TinyBoyDisplay display;
 	/**
 	 * Represents the four directional buttons on the TinyBoy.
 	 */
 	private final ControlPad pad;
+	/**
+	 * The contents of flash, or <code>null</code> if they have not been saved
+	 * since the firmware was uploaded or the TinyBoy reset. Flash only changes
+	 * through <code>upload()</code> and <code>restore()</code> and, hence, this is
+	 * shared by every snapshot taken in between. Likewise, restoring a snapshot
+	 * holding this same array leaves flash untouched.
+	 */
+	private byte[] flash;
+	/**
+	 * Buffer into which data memory is read for hashing, which is reused to avoid
+	 * allocating on every hash.
+	 */
+	private byte[] scratch;
+	/**
+	 * Buffer into which the frame is read for hashing, which is reused to avoid
+	 * allocating on every hash.
+	 */
+	private final long[] frame = new long[FRAME_SIZE];
+	/**
+	 * The number of times the AVR has been clocked since it was reset.
+	 */
+	private long cycles;
+	/**
+	 * Indicates whether delay loops should be fast-forwarded.
+	 */
+	private boolean fastForward;
+	/**
+	 * The delay loops contained in flash.
+	 */
+	private final DelayLoopTable loops = new DelayLoopTable();
+	/**
+	 * The delay loop whose iteration is being timed, or null if none.
+	 */
+	private DelayLoop timing;
+	/**
+	 * The iterations remaining and cycle count when timing began.
+	 */
+	private long timingIterations, timingCycles;
 
 	public TinyBoyEmulator() {
 		this(labels -> new IdealWire(labels));
@@ -44,7 +85,7 @@ public class TinyBoyEmulator {
 		this.avr = AvrConfiguration.instantiate("ATtiny85",factory);
 		// NOTE: we connect the display MISO and SS to LOW as they are not needed in
 		// this design, thereby freeing up pins for the button pad.
-		this.display = new DotMatrixDisplay(80, 48,
+		this.display = new TinyBoyDisplay(DISPLAY_WIDTH, DISPLAY_HEIGHT,
 				new Wire[] { avr.getPin("SCK"), avr.getPin("MOSI"), Wire.LOW, Wire.LOW });
 		this.pad = new ControlPad(avr.getPin("PB1"), avr.getPin("PB3"), avr.getPin("PB4"), avr.getPin("PB5"));
 	}
@@ -82,6 +123,53 @@ public class TinyBoyEmulator {
 		return display.isSet(x, y);
 	}
 
+	/**
+	 * Copy the current frame into a given array, packed one bit per pixel in
+	 * row-major order. This is much faster than checking each pixel in turn.
+	 *
+	 * @param dst
+	 *            Array of at least <code>FRAME_SIZE</code> longs.
+	 * @return The version of the frame copied.
+	 */
+	public long readFrame(long[] dst) {
+		return display.readFrame(dst);
+	}
+
+	/**
+	 * Get the current frame version. This increases each time a complete frame is
+	 * written to the display (and whenever it is reset or restored).
+	 *
+	 * @return
+	 */
+	public long getFrameVersion() {
+		return display.getFrameVersion();
+	}
+
+	/**
+	 * Compute a 64-bit hash of the current frame. This identifies what is shown on
+	 * the display, and can be compared between runs.
+	 *
+	 * @return
+	 */
+	public long getFrameHash() {
+		display.readFrame(frame);
+		long h = FRAME_SIZE;
+		for (int i = 0; i != frame.length; ++i) {
+			h = mix(h, frame[i]);
+		}
+		return h;
+	}
+
+	/**
+	 * Copy the set of display rows which have changed since this was last called
+	 * into a given array, packed one bit per row, and mark them as clean.
+	 *
+	 * @param dst
+	 */
+	public void readDirtyRows(long[] dst) {
+		display.readDirtyRows(dst);
+	}
+
 	/**
 	 * Get the current state of a given button.
 	 *
@@ -103,9 +191,13 @@ public class TinyBoyEmulator {
 	}
 
 	/**
-	 * Reset the TinyBoy.
+	 * Reset the TinyBoy. This leaves the firmware in flash, but the next restore
+	 * copies flash from its snapshot regardless.
 	 */
 	public void reset() {
+		cycles = 0;
+		timing = null;
+		flash = null;
 		avr.reset();
 		pad.reset();
 		display.reset();
@@ -119,6 +211,87 @@ public class TinyBoyEmulator {
 	 */
 	public void upload(HexFile firmware) {
 		firmware.uploadTo(avr.getCode());
+		flash = null;
+		refill();
+	}
+
+	/**
+	 * Enable or disable fast-forwarding of delay loops. When enabled, a software
+	 * delay loop which only counts a register down is skipped by writing the
+	 * counter directly, rather than executing every iteration. The cycle count is
+	 * adjusted as though every iteration had executed, and the state after the
+	 * loop is unchanged.
+	 *
+	 * @param enabled
+	 */
+	public void setFastForward(boolean enabled) {
+		this.fastForward = enabled;
+		this.timing = null;
+	}
+
+	/**
+	 * Take a snapshot of the complete state of this TinyBoy. This includes the
+	 * flash memory, the data memory (i.e. registers, I/O and SRAM), the program
+	 * counter, the display and the buttons. The snapshot can subsequently be
+	 * restored, which is much faster than resetting and uploading the firmware
+	 * again.
+	 *
+	 * @return
+	 */
+	public Snapshot snapshot() {
+		boolean[] buttons = new boolean[ControlPad.Button.values().length];
+		for (ControlPad.Button b : ControlPad.Button.values()) {
+			buttons[b.ordinal()] = getButtonState(b);
+		}
+		if (flash == null) {
+			flash = save(avr.getCode());
+		}
+		return new Snapshot(cycles, avr.getPC(), flash, save(avr.getData()), display.save(), buttons);
+	}
+
+	/**
+	 * Restore the TinyBoy to a previously taken snapshot.
+	 *
+	 * @param snapshot
+	 */
+	public void restore(Snapshot snapshot) {
+		// Reset clears any internal state of the AVR not held in memory. NOTE: this
+		// relies on AVR.reset() leaving code memory intact, as flash is
+		// non-volatile (and as upload() followed by reset() already requires).
+		avr.reset();
+		if (snapshot.code != flash) {
+			// Flash has changed, so any delay loops found are out of date
+			copy(snapshot.code, avr.getCode());
+			flash = snapshot.code;
+			refill();
+		}
+		restore(avr.getData(), snapshot.data);
+		avr.setPC(snapshot.pc);
+		cycles = snapshot.cycles;
+		timing = null;
+		display.restore(snapshot.display);
+		pad.reset();
+		for (ControlPad.Button b : ControlPad.Button.values()) {
+			setButtonState(b, snapshot.buttons[b.ordinal()]);
+		}
+	}
+
+	/**
+	 * Compute a 64-bit hash of the data memory (i.e. registers, I/O and SRAM).
+	 * This identifies the state of the TinyBoy without allocating a copy of it.
+	 *
+	 * @return
+	 */
+	public long getStateHash() {
+		AVR.Memory data = avr.getData();
+		final int n = data.size();
+		if (scratch == null || scratch.length != n) {
+			scratch = new byte[n];
+		}
+		for (int i = 0; i != n; ++i) {
+			scratch[i] = data.peek(i);
+		}
+		return hash(scratch);
 	}
 
 	/**
@@ -135,7 +308,68 @@ public class TinyBoyEmulator {
 	 */
 	public void clock() throws HaltedException {
 		clockPeripherals();
+		step();
+	}
+
+	/**
+	 * Clock the AVR once, without clocking the peripherals.
+	 *
+	 * @throws HaltedException
+	 */
+	protected void step() throws HaltedException {
+		if (fastForward) {
+			fastForward();
+		}
 		avr.clock();
+		cycles = cycles + 1;
+	}
+
+	/**
+	 * Fast-forward the delay loop at the current PC (if there is one). The first
+	 * time a loop is encountered, one iteration is timed by executing it normally.
+	 * Thereafter, all but the last iteration are skipped. The last iteration is
+	 * always executed normally, since it takes a different number of clocks and
+	 * determines the status flags on exit.
+	 */
+	private void fastForward() {
+		final int pc = avr.getPC();
+		if (timing != null && !timing.contains(pc)) {
+			// Control left the loop before the timed iteration completed (e.g. it was
+			// the last), so the clocks since timing began say nothing about it.
+			timing = null;
+		}
+		DelayLoop loop = loops.getDelayLoop(pc);
+		AVR.Memory data = avr.getData();
+		if (loop == null || DelayLoop.interruptsEnabled(data)) {
+			return;
+		}
+		long iterations = loop.getIterations(data);
+		if (loop.getClocks() == 0) {
+			if (timing == loop && iterations == timingIterations - 1) {
+				// Completed one iteration
+				loop.setClocks(cycles - timingCycles);
+				timing = null;
+			} else {
+				// Begin timing one iteration
+				timing = loop;
+				timingIterations = iterations;
+				timingCycles = cycles;
+				return;
+			}
+		}
+		if (iterations > 1) {
+			loop.setCounter(data, 1);
+			cycles = cycles + ((iterations - 1) * loop.getClocks());
+		}
+	}
+
+	/**
+	 * Get the number of times the AVR has been clocked since it was reset.
+	 *
+	 * @return
+	 */
+	public long getCycles() {
+		return cycles;
 	}
 
 	/**
@@ -144,4 +378,109 @@ public class TinyBoyEmulator {
 	public void destroy() {
 
 	}
+
+	/**
+	 * Find the delay loops in flash again after it has changed.
+	 */
+	private void refill() {
+		loops.fill(avr.getCode());
+	}
+
+	/**
+	 * Compute a 64-bit hash of a copy of data memory. This is the same hash as
+	 * computed by <code>getStateHash()</code> for memory with these contents.
+	 *
+	 * @param bytes
+	 * @return
+	 */
+	public static long hash(byte[] bytes) {
+		final int n = bytes.length;
+		long h = n;
+		long word = 0;
+		for (int i = 0; i != n; ++i) {
+			word = (word << 8) | (bytes[i] & 0xFF);
+			if ((i & 7) == 7) {
+				h = mix(h, word);
+				word = 0;
+			}
+		}
+		return mix(h, word);
+	}
+
+	private static long mix(long h, long word) {
+		h ^= word * 0x9E3779B97F4A7C15L;
+		h = Long.rotateLeft(h, 31) * 0xBF58476D1CE4E5B9L;
+		return h ^ (h >>> 29);
+	}
+
+	/**
+	 * Read the contents of memory into a byte array.
+	 *
+	 * @param memory
+	 * @return
+	 */
+	private static byte[] save(AVR.Memory memory) {
+		byte[] bytes = new byte[memory.size()];
+		for (int i = 0; i != bytes.length; ++i) {
+			bytes[i] = memory.peek(i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Write a byte array into memory in its entirety.
+	 *
+	 * @param bytes
+	 * @param memory
+	 */
+	private static void copy(byte[] bytes, AVR.Memory memory) {
+		for (int i = 0; i != bytes.length; ++i) {
+			memory.write(i, bytes[i]);
+		}
+	}
+
+	/**
+	 * Write a byte array back into data memory. Only those locations which differ
+	 * are written, since writing an I/O location can have side-effects even when
+	 * its value is unchanged (e.g. writing a one to <code>PINB</code> toggles the
+	 * corresponding bit of <code>PORTB</code>).
+	 *
+	 * @param memory
+	 * @param bytes
+	 */
+	private static void restore(AVR.Memory memory, byte[] bytes) {
+		for (int i = 0; i != bytes.length; ++i) {
+			byte b = bytes[i];
+			if (memory.peek(i) != b) {
+				memory.write(i, b);
+			}
+		}
+	}
+
+	/**
+	 * Represents the complete state of a TinyBoy at a given moment. Snapshots are
+	 * immutable and, hence, can be shared between emulators running the same
+	 * firmware.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Snapshot {
+		private final long cycles;
+		private final int pc;
+		private final byte[] code;
+		private final byte[] data;
+		private final TinyBoyDisplay.State display;
+		private final boolean[] buttons;
+
+		private Snapshot(long cycles, int pc, byte[] code, byte[] data, TinyBoyDisplay.State display,
+				boolean[] buttons) {
+			this.cycles = cycles;
+			this.pc = pc;
+			this.code = code;
+			this.data = data;
+			this.display = display;
+			this.buttons = buttons;
+		}
+	}
 }
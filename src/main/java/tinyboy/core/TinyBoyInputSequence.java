@@ -20,16 +20,49 @@ import javr.util.BitList;
  * @author David J. Pearce
  *
  */
-public class TinyBoyInputSequence implements Iterator<Boolean> {
+public class TinyBoyInputSequence implements Iterator<Boolean>, InputSource {
 	/**
 	 * The number of inputs is determined by the number of buttons on the control
 	 * pad.
 	 */
 	private final static int NUM_INPUTS = ControlPad.Button.values().length;
 	/**
-	 * The sequence of button push pulses.
+	 * The buttons on the control pad, indexed by ordinal.
 	 */
-	private final ControlPad.@Nullable Button[] pulses;
+	private final static ControlPad.Button[] BUTTONS = ControlPad.Button.values();
+	/**
+	 * The number of bits used to encode a pulse. A pulse is encoded as zero when
+	 * no button is pressed, and as one plus the button ordinal otherwise.
+	 */
+	private final static int PULSE_BITS = 3;
+	/**
+	 * The number of pulses packed into each word. Pulses never straddle two words.
+	 */
+	private final static int PULSES_PER_WORD = 64 / PULSE_BITS;
+	/**
+	 * The number of words in a chunk.
+	 */
+	private final static int CHUNK_WORDS = 16;
+	/**
+	 * The number of pulses in a chunk.
+	 */
+	private final static int CHUNK_PULSES = CHUNK_WORDS * PULSES_PER_WORD;
+	/**
+	 * The complete chunks of this sequence, packed into words. Since chunks are
+	 * never modified once complete, they are shared between all sequences with a
+	 * common prefix.
+	 */
+	private final long[][] chunks;
+	/**
+	 * The incomplete chunk at the end of this sequence. This may also be shared
+	 * with other sequences, and hence may contain pulses beyond the end of this
+	 * sequence.
+	 */
+	private final Tail tail;
+	/**
+	 * The number of pulses in the sequence.
+	 */
+	private final int length;
 
 	/**
 	 * Clock determines where we are in the pulse sequence.
@@ -37,16 +70,30 @@ public class TinyBoyInputSequence implements Iterator<Boolean> {
 	private int clock = 0;
 
 	public TinyBoyInputSequence(ControlPad.@Nullable Button... pulses) {
-		this.pulses = pulses;
+		final int n = pulses.length;
+		this.chunks = new long[n / CHUNK_PULSES][CHUNK_WORDS];
+		this.tail = new Tail();
+		this.length = n;
+		for (int i = 0; i != n; ++i) {
+			set(words(i), i % CHUNK_PULSES, pulses[i]);
+		}
+		tail.used = n % CHUNK_PULSES;
 	}
 
 	/**
-	 * Create a copy of a given input sequence.
+	 * Create a copy of a given input sequence. Since the contents of a sequence
+	 * are immutable, the copy shares them and only has its own position.
 	 *
 	 * @param list
 	 */
 	public TinyBoyInputSequence(@NonNull TinyBoyInputSequence list) {
-		this.pulses = Arrays.copyOf(list.pulses, list.pulses.length);
+		this(list.chunks, list.tail, list.length);
+	}
+
+	private TinyBoyInputSequence(long[][] chunks, Tail tail, int length) {
+		this.chunks = chunks;
+		this.tail = tail;
+		this.length = length;
 	}
 
 	/**
@@ -54,7 +101,50 @@ public class TinyBoyInputSequence implements Iterator<Boolean> {
 	 * @return
 	 */
 	public int length() {
-		return pulses.length;
+		return length;
+	}
+
+	/**
+	 * Get the pulse at a given position in this sequence, where <code>null</code>
+	 * indicates no button is pressed.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public ControlPad.@Nullable Button get(int index) {
+		int code = code(index);
+		return code == 0 ? null : BUTTONS[code - 1];
+	}
+
+	/**
+	 * Get the number of complete pulses which have been read so far.
+	 *
+	 * @return
+	 */
+	public int position() {
+		return clock / NUM_INPUTS;
+	}
+
+	/**
+	 * Check whether this sequence is positioned on the boundary between two
+	 * pulses. That is, every input value of the preceding pulses has been read
+	 * and no input value of the following pulse.
+	 *
+	 * @return
+	 */
+	public boolean isOnBoundary() {
+		return (clock % NUM_INPUTS) == 0;
+	}
+
+	/**
+	 * Reposition this sequence at the start of a given pulse. This allows
+	 * execution to resume from a point where the preceding pulses were already
+	 * read.
+	 *
+	 * @param pulse
+	 */
+	public void seek(int pulse) {
+		clock = pulse * NUM_INPUTS;
 	}
 
 	@Override
@@ -62,40 +152,60 @@ public class TinyBoyInputSequence implements Iterator<Boolean> {
 		int n = clock / NUM_INPUTS;
 		// NOTE: following is a little trick which basically allows the TinyBoy to
 		// continue executing upto and including the next time the buttons are read.
-		return n <= pulses.length;
+		return n <= length;
 	}
 
 	/**
-	 * Get next input in sequence.
+	 * Get next input in sequence. This is an adapter for
+	 * <code>getAsBoolean()</code>, which should be preferred as it avoids boxing.
 	 */
 	@Override
 	public @NonNull Boolean next() {
+		return getAsBoolean();
+	}
+
+	@Override
+	public boolean getAsBoolean() {
 		int n = clock / NUM_INPUTS;
 		int m = clock % NUM_INPUTS;
 		// Increment clock
 		clock = clock + 1;
-		// Sanity check whether finished
-		if(n >= pulses.length) {
-			return false;
-		} else {
-			// Extract pulse
-			ControlPad.Button b = pulses[n];
-			// Determine whether high or low
-			return (b != null) && (m == b.ordinal());
-		}
+		// Sanity check whether finished, otherwise determine whether high or low.
+		return n < length && code(n) == (m + 1);
 	}
 
 	/**
-	 * Append a new pulse onto the end of this input sequence.
+	 * Append a new pulse onto the end of this input sequence. The resulting
+	 * sequence shares the contents of this sequence and, hence, appending takes
+	 * constant time in general.
 	 *
 	 * @param pulse
 	 * @return
 	 */
 	public @NonNull TinyBoyInputSequence append(ControlPad.@Nullable Button pulse) {
-		final int len = pulses.length;
-		TinyBoyInputSequence s = new TinyBoyInputSequence(Arrays.copyOf(pulses, len + 1));
-		s.pulses[len] = pulse;
-		return s;
+		final int n = length % CHUNK_PULSES;
+		if (n == 0 && length > chunks.length * CHUNK_PULSES) {
+			// Tail is full, so becomes a chunk in its own right.
+			long[][] nChunks = Arrays.copyOf(chunks, chunks.length + 1);
+			nChunks[chunks.length] = tail.words;
+			Tail nTail = new Tail();
+			set(nTail.words, 0, pulse);
+			nTail.used = 1;
+			return new TinyBoyInputSequence(nChunks, nTail, length + 1);
+		}
+		synchronized (tail) {
+			if (tail.used == n) {
+				// No other sequence has extended the tail, so it can be extended in place.
+				set(tail.words, n, pulse);
+				tail.used = n + 1;
+				return new TinyBoyInputSequence(chunks, tail, length + 1);
+			}
+		}
+		// Tail was already extended by another sequence, so make a copy.
+		Tail nTail = tail.copy(n);
+		set(nTail.words, n, pulse);
+		nTail.used = n + 1;
+		return new TinyBoyInputSequence(chunks, nTail, length + 1);
 	}
 
 	/**
@@ -105,28 +215,178 @@ public class TinyBoyInputSequence implements Iterator<Boolean> {
 	 * @return
 	 */
 	public @NonNull TinyBoyInputSequence append(ControlPad.@Nullable Button @NonNull [] nPulses) {
-		final int n = pulses.length;
-		final int m = nPulses.length;
-		ControlPad.@Nullable Button[] tmp = new ControlPad.@Nullable Button[n+m];
-		// Copy pulses over
-		System.arraycopy(pulses, 0, tmp, 0, n);
-		System.arraycopy(nPulses, 0, tmp, n, nPulses.length);
-		// Create sequence of appropriate length.
-		return new TinyBoyInputSequence(tmp);
+		TinyBoyInputSequence r = this;
+		for (int i = 0; i != nPulses.length; ++i) {
+			r = r.append(nPulses[i]);
+		}
+		return r;
 	}
 
-
 	@Override
 	public @NonNull String toString() {
-		String r = "";
-		for (int i = 0; i != pulses.length; ++i) {
-			ControlPad.Button pulse = pulses[i];
+		StringBuilder r = new StringBuilder();
+		for (int i = 0; i != length; ++i) {
+			ControlPad.Button pulse = get(i);
 			if(pulse == null) {
-				r = r + "_";
+				r.append('_');
 			} else {
-				r += pulse.toString().charAt(0);
+				r.append(pulse.toString().charAt(0));
 			}
 		}
+		return r.toString();
+	}
+
+	/**
+	 * Construct an input sequence from its string form (as produced by
+	 * <code>toString()</code>), where each pulse is given by the first letter of
+	 * its button (e.g. 'L' for LEFT) or '_' for no button.
+	 *
+	 * @param str
+	 * @return
+	 */
+	public static @NonNull TinyBoyInputSequence parse(@NonNull String str) {
+		ControlPad.Button[] buttons = ControlPad.Button.values();
+		ControlPad.Button[] pulses = new ControlPad.Button[str.length()];
+		for (int i = 0; i != pulses.length; ++i) {
+			char c = str.charAt(i);
+			if (c != '_') {
+				for (ControlPad.Button b : buttons) {
+					if (b.toString().charAt(0) == c) {
+						pulses[i] = b;
+					}
+				}
+				if (pulses[i] == null) {
+					throw new IllegalArgumentException("invalid pulse '" + c + "' at position " + i);
+				}
+			}
+		}
+		return new TinyBoyInputSequence(pulses);
+	}
+
+	/**
+	 * Pack the pulses of this sequence into words, such that each word holds
+	 * <code>64 / 3</code> pulses of three bits each, starting from the least
+	 * significant bits. This is suitable for storing a sequence compactly, and can
+	 * be reversed with <code>unpack()</code>.
+	 *
+	 * @return
+	 */
+	public long @NonNull [] pack() {
+		long[] r = new long[(length + PULSES_PER_WORD - 1) / PULSES_PER_WORD];
+		for (int i = 0; i != chunks.length; ++i) {
+			System.arraycopy(chunks[i], 0, r, i * CHUNK_WORDS, CHUNK_WORDS);
+		}
+		// NOTE: the tail may hold pulses beyond the end of this sequence, or be full
+		// (i.e. when not yet promoted to a chunk by append()).
+		int offset = chunks.length * CHUNK_WORDS;
+		Tail last = tail.copy(length - chunks.length * CHUNK_PULSES);
+		System.arraycopy(last.words, 0, r, offset, r.length - offset);
 		return r;
 	}
+
+	/**
+	 * Construct an input sequence of a given length from the packed form produced
+	 * by <code>pack()</code>.
+	 *
+	 * @param words
+	 * @param length
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             If the words are not a valid packing of the given number of
+	 *             pulses.
+	 */
+	public static @NonNull TinyBoyInputSequence unpack(long @NonNull [] words, int length) {
+		if (length < 0 || words.length != (length + PULSES_PER_WORD - 1) / PULSES_PER_WORD) {
+			throw new IllegalArgumentException("invalid length " + length + " for " + words.length + " words");
+		}
+		for (int i = 0; i != length; ++i) {
+			int code = (int) (words[i / PULSES_PER_WORD] >>> ((i % PULSES_PER_WORD) * PULSE_BITS)) & 0b111;
+			if (code > NUM_INPUTS) {
+				throw new IllegalArgumentException("invalid pulse " + code + " at position " + i);
+			}
+		}
+		long[][] chunks = new long[length / CHUNK_PULSES][];
+		for (int i = 0; i != chunks.length; ++i) {
+			chunks[i] = Arrays.copyOfRange(words, i * CHUNK_WORDS, (i + 1) * CHUNK_WORDS);
+		}
+		Tail tail = new Tail();
+		int offset = chunks.length * CHUNK_WORDS;
+		System.arraycopy(words, offset, tail.words, 0, words.length - offset);
+		// Ensure any bits beyond the end are clear, so the tail can be extended.
+		tail = tail.copy(length % CHUNK_PULSES);
+		return new TinyBoyInputSequence(chunks, tail, length);
+	}
+
+	/**
+	 * Get the encoding of the pulse at a given position.
+	 *
+	 * @param index
+	 * @return
+	 */
+	private int code(int index) {
+		int i = index % CHUNK_PULSES;
+		int shift = (i % PULSES_PER_WORD) * PULSE_BITS;
+		return (int) (words(index)[i / PULSES_PER_WORD] >>> shift) & 0b111;
+	}
+
+	/**
+	 * Get the words of the chunk holding the pulse at a given position.
+	 *
+	 * @param index
+	 * @return
+	 */
+	private long[] words(int index) {
+		int c = index / CHUNK_PULSES;
+		return c < chunks.length ? chunks[c] : tail.words;
+	}
+
+	/**
+	 * Write the encoding of a given pulse into a chunk. This assumes the existing
+	 * encoding at that position is zero.
+	 *
+	 * @param words
+	 * @param index
+	 *            Position of the pulse within the chunk.
+	 * @param pulse
+	 */
+	private static void set(long[] words, int index, ControlPad.@Nullable Button pulse) {
+		if (pulse != null) {
+			int shift = (index % PULSES_PER_WORD) * PULSE_BITS;
+			words[index / PULSES_PER_WORD] |= ((long) (pulse.ordinal() + 1)) << shift;
+		}
+	}
+
+	/**
+	 * Represents the incomplete chunk at the end of one or more sequences. Only the
+	 * sequence whose length matches the number of pulses used can extend it in
+	 * place.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Tail {
+		private final long[] words = new long[CHUNK_WORDS];
+		/**
+		 * The number of pulses written into this chunk.
+		 */
+		private int used;
+
+		/**
+		 * Copy the first <code>n</code> pulses of this chunk.
+		 *
+		 * @param n
+		 * @return
+		 */
+		public Tail copy(int n) {
+			Tail r = new Tail();
+			int w = n / PULSES_PER_WORD;
+			System.arraycopy(words, 0, r.words, 0, w);
+			int m = (n % PULSES_PER_WORD) * PULSE_BITS;
+			if (m != 0) {
+				r.words[w] = words[w] & ((1L << m) - 1);
+			}
+			r.used = n;
+			return r;
+		}
+	}
 }
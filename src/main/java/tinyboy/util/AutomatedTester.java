@@ -1,35 +1,39 @@
 package tinyboy.util;
 
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.function.Supplier;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.management.JMException;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 
 import javr.core.AVR;
 import javr.core.AVR.HaltedException;
-import javr.core.AvrConfiguration;
-import javr.core.Wire;
 import javr.io.HexFile;
 import javr.memory.InstrumentableMemory;
 import javr.memory.instruments.ReadWriteInstrument;
-import javr.util.BitList;
-import javr.util.IdealWire;
 import javrsim.peripherals.JPeripheral;
-import tinyboy.core.ControlPad.Button;
 import tinyboy.views.TinyBoyPeripheral;
 import tinyboy.core.ControlPad;
+import tinyboy.core.InputSource;
+import tinyboy.core.SymbolicPullWire;
 import tinyboy.core.TinyBoyEmulator;
+import tinyboy.core.TinyBoyInputSequence;
 
 /**
  * Provides a simple framework for generating tests and fuzzing a given firmware
@@ -43,6 +47,32 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 	 * Construct a thread pool to use for parallel processing.
 	 */
 	private static final ExecutorService executor = Executors.newCachedThreadPool();
+	/**
+	 * Default number of checkpoints retained by the prefix cache.
+	 */
+	private static final int CACHE_SIZE = 4096;
+	/**
+	 * Number of pulses between successive checkpoints of an input sequence.
+	 */
+	private static final int CHECKPOINT_INTERVAL = 4;
+	/**
+	 * Number of final state fingerprints retained to identify duplicate runs.
+	 */
+	private static final int STATE_CACHE_SIZE = 1 << 20;
+	/**
+	 * Once a run has taken a new edge, it is not considered stalled until it has
+	 * gone this many times longer than its longest gap so far without another.
+	 */
+	private static final int STALL_FACTOR = 4;
+	/**
+	 * Sentinel input used to tell a worker to stop.
+	 */
+	private static final Iterator<Boolean> STOP = new TinyBoyInputSequence();
+	/**
+	 * Time between flushes of the store, and polls of the sync directory (in
+	 * milliseconds).
+	 */
+	private static final long SYNC_INTERVAL = 5000;
 
 	/**
 	 * TinyBoy instance being fuzzed
@@ -61,16 +91,92 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 	 */
 	private final int nthreads;
 	/**
-	 * Batch size to use for each thread.
+	 * Number of inputs queued for each thread. This allows workers to move
+	 * straight onto their next input without waiting for the generator.
 	 */
 	private final int batchSize;
+	/**
+	 * Snapshot of a TinyBoy immediately after the firmware was uploaded. Each test
+	 * begins by restoring this, rather than resetting and uploading the firmware
+	 * again.
+	 */
+	private final TinyBoyEmulator.Snapshot boot;
+	/**
+	 * Cache of states reached by executing prefixes of earlier inputs. This is
+	 * only used for inputs which are instances of TinyBoyInputSequence, and may be
+	 * <code>null</code> if caching is disabled.
+	 */
+	private final @Nullable PrefixCache cache;
+	/**
+	 * Classified edge hit counts seen across all runs so far. This is used to
+	 * determine whether a run exhibited new behaviour.
+	 */
+	private final byte[] virgin = EdgeCoverage.newVirginMap();
+	/**
+	 * Indicates whether a full copy of the final state should be captured for
+	 * each test, or only its hash.
+	 */
+	private final boolean captureState;
+	/**
+	 * Indicates whether the hash of the final frame should be captured for each
+	 * test.
+	 */
+	private final boolean captureFrame;
+	/**
+	 * Fingerprints of the final states reached by earlier runs.
+	 */
+	private final StateCache states = new StateCache(STATE_CACHE_SIZE);
+	/**
+	 * The maximum number of cycles a test may run for.
+	 */
+	private long cycleBudget = Long.MAX_VALUE;
+	/**
+	 * The minimum number of cycles without taking an edge new to the campaign
+	 * before a test is considered stalled, or zero if stall detection is disabled.
+	 */
+	private long stallThreshold = 0;
+	/**
+	 * Metrics for the most recent (or current) campaign.
+	 */
+	private final FuzzMetrics metrics;
+	/**
+	 * Receives metrics periodically during a campaign.
+	 */
+	private MetricsReporter reporter = MetricsReporter.STDERR;
+	/**
+	 * Persistent store of interesting inputs and coverage, or <code>null</code>
+	 * if none.
+	 */
+	private @Nullable CorpusStore store;
+	/**
+	 * Directory through which inputs are shared with other processes, or
+	 * <code>null</code> if none.
+	 */
+	private @Nullable SyncDirectory sync;
 
 	public AutomatedTester(HexFile firmware, InputGenerator<T> generator, boolean gui, int nthreads, int batchSize) {
+		this(firmware, generator, gui, nthreads, batchSize, CACHE_SIZE);
+	}
+
+	/**
+	 * Construct a tester with a given capacity for the prefix cache. A capacity of
+	 * zero disables caching, such that every input is executed from the start.
+	 */
+	public AutomatedTester(HexFile firmware, InputGenerator<T> generator, boolean gui, int nthreads, int batchSize,
+			int cacheSize) {
+		if (nthreads <= 0) {
+			throw new IllegalArgumentException("invalid number of threads: " + nthreads);
+		} else if (batchSize <= 0) {
+			throw new IllegalArgumentException("invalid batch size: " + batchSize);
+		} else if (cacheSize < 0) {
+			throw new IllegalArgumentException("invalid cache size: " + cacheSize);
+		}
 		this.firmware = firmware;
 		this.generator = generator;
+		this.captureFrame = generator.needsFrameHash();
 		this.tinyBoys = new ExtendedTinyBoyEmulator[nthreads];
 		for(int i=0;i!=tinyBoys.length;++i) {
-			ExtendedTinyBoyEmulator ith = createTinyBoy(gui);
+			ExtendedTinyBoyEmulator ith = createTinyBoy(gui, captureFrame);
 			this.tinyBoys[i] = ith;
 			if(gui) {
 				JPeripheral view = ith.getView();
@@ -81,15 +187,128 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 		}
 		this.nthreads = nthreads;
 		this.batchSize = batchSize;
+		// Boot first instance to obtain the starting state for all tests
+		tinyBoys[0].reset();
+		tinyBoys[0].upload(firmware);
+		this.boot = tinyBoys[0].snapshot();
+		this.cache = cacheSize > 0 ? new PrefixCache(cacheSize) : null;
+		this.captureState = generator.needsState();
+		this.metrics = new FuzzMetrics(nthreads);
 	}
 
 	/**
-	 * Destroy all tinyboy instances created.
+	 * Get the metrics of this tester. These describe the current campaign (i.e.
+	 * call to <code>run()</code>) or, if none is running, the most recent. They
+	 * can be exposed over JMX using <code>FuzzMetrics.register()</code>, and are
+	 * withdrawn again by <code>destroy()</code>.
+	 *
+	 * @return
+	 */
+	public FuzzMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set the store in which interesting inputs and coverage are persisted. The
+	 * coverage already in the store is loaded at the start of each campaign and,
+	 * thereafter, every input which reaches new coverage is appended. Note that
+	 * the inputs in the store are not given to the generator, and should be added
+	 * to its corpus separately (e.g. using
+	 * <code>CoverageGuidedGenerator.addToCorpus()</code>). The store is flushed
+	 * periodically and at the end of each campaign, and is closed by
+	 * <code>destroy()</code>.
+	 *
+	 * @param store
+	 */
+	public void setStore(@Nullable CorpusStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Share inputs with other processes through a given sync directory. Inputs
+	 * reaching new coverage are appended to this instance's store in the
+	 * directory (see <code>setStore()</code>), and the inputs found by other
+	 * instances are periodically imported. An imported input is executed like any
+	 * other, and then given to the generator (but is not appended to this
+	 * instance's store). Hence, this can only be used when
+	 * the generator produces instances of <code>TinyBoyInputSequence</code>. The
+	 * directory is closed by <code>destroy()</code>.
+	 *
+	 * @param sync
+	 */
+	public void setSync(@Nullable SyncDirectory sync) {
+		this.sync = sync;
+		this.store = sync != null ? sync.getStore() : null;
+	}
+
+	/**
+	 * Set the reporter which receives metrics periodically during a campaign. By
+	 * default, progress is reported on standard error.
+	 *
+	 * @param reporter
+	 */
+	public void setReporter(MetricsReporter reporter) {
+		this.reporter = reporter;
+	}
+
+	/**
+	 * Set the maximum number of cycles any test may run for. Tests which exceed
+	 * this are stopped and reported as having timed out.
+	 *
+	 * @param cycles
+	 */
+	public void setCycleBudget(long cycles) {
+		this.cycleBudget = cycles;
+	}
+
+	/**
+	 * Set the minimum number of cycles a test may run without taking a new edge
+	 * (i.e. one which no earlier test had taken). Tests which exceed this are
+	 * stopped and reported as stalled. The threshold
+	 * adapts to each test, so that a test which has already gone a long time
+	 * between new edges is given correspondingly longer. A threshold of zero
+	 * disables stall detection.
+	 *
+	 * @param cycles
+	 */
+	public void setStallThreshold(long cycles) {
+		this.stallThreshold = cycles;
+	}
+
+	/**
+	 * Enable or disable fast-forwarding of software delay loops on all tinyboy
+	 * instances (see <code>TinyBoyEmulator.setFastForward()</code>).
+	 *
+	 * @param enabled
+	 */
+	public void setFastForward(boolean enabled) {
+		for (int i = 0; i != tinyBoys.length; ++i) {
+			tinyBoys[i].setFastForward(enabled);
+		}
+	}
+
+	/**
+	 * Destroy all tinyboy instances created, withdraw the metrics from JMX (if
+	 * registered), and close the store or sync directory (if any).
 	 */
 	public void destroy() {
 		for(int i=0;i!=tinyBoys.length;++i) {
 			tinyBoys[i].destroy();
 		}
+		try {
+			metrics.unregister();
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+		try {
+			if (sync != null) {
+				sync.close();
+			} else if (store != null) {
+				store.close();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 
 	/**
@@ -98,12 +317,10 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 	 * for a maximum number of cycles against a given coverage target. If the target
 	 * is achieved, the test stops immediately.
 	 *
-	 * @param iterations
-	 *            The number of iterations of fuzzing to perform. Each iteration
-	 *            consists of generating a new input based on previous inputs seen.
-	 * @param cycles
-	 *            The maximum number of cycles to run a test for. This is
-	 *            effectively a timeout to ensure tests don't go on forever.
+	 * The maximum number of cycles for each test is set by
+	 * <code>setCycleBudget()</code>, and tests can also be stopped early when they
+	 * stall (see <code>setStallThreshold()</code>).
+	 *
 	 * @param target
 	 *            The target coverage and, once achieved, testing will stop.
 	 * @return
@@ -111,147 +328,397 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 	 * @throws InterruptedException
 	 */
 	public CoverageAnalysis run(double target) throws InterruptedException, ExecutionException {
-		long time = System.currentTimeMillis();
-		// Construct temporary memory areas
-		@NonNull Iterator<Boolean>[][] arrays = new @NonNull Iterator[nthreads][batchSize];
-		Future<Result[]>[] threads = new Future[nthreads];
 		CoverageAnalysis analysis = new CoverageAnalysis(firmware);
 		System.err.println("Initialised " + nthreads + " worker threads.");
+		return run(analysis, target);
+	}
+
+	/**
+	 * Run the fuzzer as for <code>run(double)</code>, but recording coverage in a
+	 * given analysis of the firmware. This allows the (relatively expensive)
+	 * analysis to be constructed ahead of time.
+	 *
+	 * @param analysis
+	 *            Coverage analysis of the firmware being fuzzed.
+	 * @param target
+	 *            The target coverage and, once achieved, testing will stop.
+	 * @return
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public CoverageAnalysis run(CoverageAnalysis analysis, double target)
+			throws InterruptedException, ExecutionException {
+		metrics.start();
+		// Inputs waiting to be processed, and results waiting to be recorded.
+		final int capacity = nthreads * batchSize;
+		final BlockingQueue<Iterator<Boolean>> inputs = new ArrayBlockingQueue<>(capacity);
+		final BlockingQueue<Outcome> outputs = new LinkedBlockingQueue<>();
+		// Start workers, each of which owns a tinyboy.
+		Future<?>[] workers = new Future[nthreads];
+		for (int i = 0; i != nthreads; ++i) {
+			final ExtendedTinyBoyEmulator tinyBoy = tinyBoys[i];
+			final WorkerMetrics stats = metrics.getWorker(i);
+			workers[i] = executor.submit(() -> {
+				work(tinyBoy, stats, inputs, outputs);
+				return null;
+			});
+		}
+		if (store != null) {
+			resume(store, analysis);
+		}
 		int iteration = 0;
-		while (analysis.getBranchCoverage() < target && generator.hasMore()) {
-			// Create next batch
-			for (int i = 0; i != nthreads; ++i) {
-				copyToArray(arrays[i], generator);
+		// Number of inputs either queued or being processed.
+		int pending = 0;
+		// Inputs imported from other processes, but not yet queued.
+		final ArrayDeque<T> imports = new ArrayDeque<>();
+		// Imported inputs which are queued or being processed. These are already
+		// held in the store of another process, and so are not persisted here.
+		final Set<Object> imported = Collections.newSetFromMap(new IdentityHashMap<>());
+		long lastSync = 0;
+		try {
+			while (analysis.getBranchCoverage() < target) {
+				if (store != null && System.currentTimeMillis() - lastSync >= SYNC_INTERVAL) {
+					lastSync = System.currentTimeMillis();
+					// Flush the inputs found so far, in case this process dies
+					persist(store::sync);
+					if (sync != null) {
+						imports.addAll(importInputs(sync));
+					}
+				}
+				// Keep the workers supplied with inputs
+				Object stage = FlightRecorder.INSTANCE.beginFuzzStage();
+				int generated = 0;
+				while (pending < capacity && (!imports.isEmpty() || generator.hasMore())) {
+					T input;
+					if (imports.isEmpty()) {
+						input = generator.generate();
+					} else {
+						input = imports.poll();
+						imported.add(input);
+					}
+					if (input == null) {
+						break;
+					}
+					inputs.put(input);
+					pending = pending + 1;
+					generated = generated + 1;
+				}
+				if (generated != 0) {
+					FlightRecorder.INSTANCE.commitFuzzStage(stage, FlightRecorder.GENERATE, generated);
+				}
+				if (pending == 0) {
+					// Generator is finished and all results are recorded.
+					break;
+				}
+				// Record results as they arrive
+				stage = FlightRecorder.INSTANCE.beginFuzzStage();
+				Outcome outcome = outputs.take();
+				FlightRecorder.INSTANCE.commitFuzzStage(stage, FlightRecorder.WAIT, 1);
+				pending = pending - 1;
+				if (outcome.error != null) {
+					throw new ExecutionException(outcome.error);
+				}
+				stage = FlightRecorder.INSTANCE.beginFuzzStage();
+				Result r = outcome.result;
+				BitSet covered = r.getCodeExecuted();
+				// Insure only instructions returned.
+				covered.and(analysis.getReachableInstructions());
+				// Register the output with the generator so that it can refine its strategy
+				// based on this.
+				generator.record((T) outcome.input, r);
+				// Record the output with the coverage analysis so that we can subsequently
+				// compute coverage data.
+				boolean fresh = analysis.record(covered);
+				boolean foreign = imported.remove(outcome.input);
+				if (store != null && !foreign && outcome.input instanceof TinyBoyInputSequence
+						&& (fresh || r.getNovelty() == EdgeCoverage.NEW_EDGE)) {
+					persist(() -> store.append((TinyBoyInputSequence) outcome.input, covered));
+				}
+				FlightRecorder.INSTANCE.commitFuzzStage(stage, FlightRecorder.RECORD, 1);
+				// Update iteration count
+				iteration = iteration + 1;
+				if ((iteration % capacity) == 0) {
+					report(iteration, analysis);
+				}
 			}
-			// Submit next batch for process
+		} finally {
+			// Shutdown the workers, discarding any inputs not yet started.
+			inputs.clear();
 			for (int i = 0; i != nthreads; ++i) {
-				final ExtendedTinyBoyEmulator tinyBoy = tinyBoys[i];
-				final Iterator<Boolean>[] batch = arrays[i];
-				threads[i] = executor.submit(() -> fuzzTest(tinyBoy,batch));
+				inputs.put(STOP);
 			}
-			// Join all back together
 			for (int i = 0; i != nthreads; ++i) {
-				Result[] results = threads[i].get();
-				final @NonNull Iterator<Boolean>[] batch = arrays[i];
-				for(int j=0;j!=results.length;++j) {
-					Result r = results[j];
-					if(r != null) {
-						// Result can be null for incomplete batches.
-						BitSet covered = r.getCodeExecuted();
-						// Insure only instructions returned.
-						covered.and(analysis.getReachableInstructions());
-						// Register the output with the generator so that it can refine its strategy
-						// based on this.
-						generator.record((T) batch[j], r.getCodeExecuted(), r.getState());
-						// Record the output with the coverage analysis so that we can subsequently
-						// compute coverage data.
-						analysis.record(covered);
-						// Update iteration count
-						iteration = iteration + 1;
-					}
+				try {
+					workers[i].get();
+				} catch (ExecutionException e) {
+					// Worker failures are reported through their outcomes.
 				}
 			}
-			long t = System.currentTimeMillis() - time;
-			double rate = Math.round((((double)iteration) / t) * 10000) / 10.0D;
-			System.err.println("Processed " + iteration + " inputs @ " + rate + " inputs/s with coverage "
-					+ Math.round(analysis.getBranchCoverage()) + "%");
+			// Any inputs still outstanding will never be recorded.
+			generator.finish();
+		}
+		report(iteration, analysis);
+		if (store != null) {
+			final byte[] edges;
+			synchronized (virgin) {
+				edges = virgin.clone();
+			}
+			persist(() -> store.saveCoverage(analysis.getCoverage(), edges));
+			persist(store::sync);
 		}
 		return analysis;
 	}
 
 	/**
-	 * Fuzz test a given batch of inputs.
+	 * Import inputs found by other processes since this was last called. These
+	 * are executed like any other input, which determines whether they take any
+	 * edges (or cover any code) new to this process.
 	 *
-	 * @param inputs
-	 * @param cycles
+	 * @param sync
 	 * @return
+	 * @throws ExecutionException
+	 */
+	@SuppressWarnings("unchecked")
+	private List<T> importInputs(SyncDirectory sync) throws ExecutionException {
+		try {
+			return (List<T>) (List<?>) sync.poll();
+		} catch (IOException e) {
+			throw new ExecutionException(e);
+		}
+	}
+
+	/**
+	 * Load the coverage held in a given store, so that a campaign resumes where
+	 * the last one left off.
+	 *
+	 * @param store
+	 * @param analysis
 	 */
-	private Result[] fuzzTest(ExtendedTinyBoyEmulator tinyBoy, Iterator<Boolean>[] inputs) {
-		Result[] r = new Result[inputs.length];
-		for(int i=0;i!=r.length;++i) {
-			Iterator<Boolean> input = inputs[i];
-			if(input != null) {
-				r[i] = fuzzTest(tinyBoy,input);
+	private void resume(CorpusStore store, CoverageAnalysis analysis) {
+		analysis.record(store.getCoverage());
+		for (CorpusStore.Entry e : store.getEntries()) {
+			analysis.record(e.getCoverage());
+		}
+		byte[] saved = store.getVirginMap();
+		if (saved != null && saved.length == virgin.length) {
+			synchronized (virgin) {
+				for (int i = 0; i != virgin.length; ++i) {
+					virgin[i] &= saved[i];
+				}
 			}
 		}
-		return r;
 	}
+
+	private static void persist(IOAction action) throws ExecutionException {
+		try {
+			action.run();
+		} catch (IOException e) {
+			throw new ExecutionException(e);
+		}
+	}
+
+	private interface IOAction {
+		public void run() throws IOException;
+	}
+
+	/**
+	 * Process inputs from a given queue until told to stop. Each input is fuzz
+	 * tested on the given tinyboy, and the outcome is placed on the output queue.
+	 *
+	 * @param tinyBoy
+	 * @param stats
+	 * @param inputs
+	 * @param outputs
+	 * @throws InterruptedException
+	 */
+	private void work(ExtendedTinyBoyEmulator tinyBoy, WorkerMetrics stats, BlockingQueue<Iterator<Boolean>> inputs,
+			BlockingQueue<Outcome> outputs) throws InterruptedException {
+		while (true) {
+			long idle = System.nanoTime();
+			Iterator<Boolean> input = inputs.take();
+			stats.recordIdle(System.nanoTime() - idle);
+			if (input == STOP) {
+				return;
+			}
+			try {
+				outputs.put(new Outcome(input, fuzzTest(tinyBoy, stats, input), null));
+			} catch (RuntimeException | Error e) {
+				outputs.put(new Outcome(input, null, e));
+			}
+		}
+	}
+
+	private void report(int iteration, CoverageAnalysis analysis) {
+		metrics.update(iteration, analysis);
+		reporter.report(metrics);
+	}
+
 	/**
 	 * Actually fuzz test the TinyBoy with a given sequence of input values.
 	 *
+	 * @param stats
 	 * @param input
 	 * @return
 	 * @throws HaltedException
 	 */
-	private Result fuzzTest(ExtendedTinyBoyEmulator tinyBoy, Iterator<Boolean> input) {
-		// Reset the tiny boy
-		tinyBoy.reset();
-		tinyBoy.upload(firmware);
-		tinyBoy.bind(input);
+	private Result fuzzTest(ExtendedTinyBoyEmulator tinyBoy, WorkerMetrics stats, Iterator<Boolean> input) {
+		final long t0 = System.nanoTime();
+		Object event = FlightRecorder.INSTANCE.beginFuzzTest();
+		TinyBoyInputSequence sequence = null;
+		PrefixCache.Checkpoint checkpoint = null;
+		if (cache != null && input instanceof TinyBoyInputSequence) {
+			sequence = (TinyBoyInputSequence) input;
+			checkpoint = cache.lookup(sequence);
+		}
 		// Responsible for determining code locations which were read. This will include
-		// all those which represent data.
-		ReadWriteInstrument instrument = new ReadWriteInstrument();
+		// all those which represent data. NOTE: the instrument is reused across tests,
+		// so it must be cleared first.
+		ReadWriteInstrument instrument = tinyBoy.getInstrument();
+		BitSet reads = instrument.getReads();
+		reads.clear();
+		EdgeCoverage edges = tinyBoy.getEdges();
+		// Reset the tiny boy, resuming from a shared prefix where possible. In which
+		// case, the code executed and edges taken by the prefix are carried over so
+		// the outcome is the same as executing the input in full.
+		if (checkpoint != null) {
+			tinyBoy.restore(checkpoint.getSnapshot());
+			sequence.seek(checkpoint.length());
+			reads.or(checkpoint.getCoverage());
+			edges.restore(checkpoint.getEdges());
+		} else {
+			tinyBoy.restore(boot);
+			edges.reset(tinyBoy.getAVR().getPC());
+			if (input instanceof TinyBoyInputSequence) {
+				// NOTE: a sequence may have been executed before (e.g. by an earlier
+				// campaign) and, hence, may already be exhausted.
+				((TinyBoyInputSequence) input).seek(0);
+			}
+		}
+		tinyBoy.bind(input);
 		// Register instrumentation
 		InstrumentableMemory code = (InstrumentableMemory) tinyBoy.getAVR().getCode();
 		code.register(instrument);
+		final long t1 = System.nanoTime();
+		final long start = tinyBoy.getCycles();
 		// Keep going until input is exhausted
+		Termination termination;
 		try {
-			while(input.hasNext()) {
-				tinyBoy.clock();
-			}
+			termination = execute(tinyBoy, input, sequence, instrument, checkpoint);
 		} catch (HaltedException e) {
+			termination = Termination.HALTED;
+		} finally {
+			// Remove instrumentation. This must happen even if execution fails, since
+			// the instrument is reused and would otherwise be registered twice.
+			code.unregister(instrument);
 		}
-		// Remove instrumentation
-		code.unregister(instrument);
+		final long t2 = System.nanoTime();
 		//
-		byte @NonNull [] data = toByteArray(tinyBoy.getAVR().getData());
-		// Extract the coverage data
-		BitSet reads = instrument.getReads();
-		assert reads != null;
+		// Only copy the final state if the generator actually needs it.
+		long hash = tinyBoy.getStateHash();
+		byte[] data = captureState ? toByteArray(tinyBoy.getAVR().getData()) : null;
+		// Extract the coverage data. This must be copied, since the instrument is
+		// reused by the next test.
+		BitSet coverage = (BitSet) reads.clone();
+		//
+		// Determine whether any new edges were taken
+		int novelty = edges.merge(virgin);
+		//
+		// Determine whether an earlier run ended in the same state
+		boolean duplicate = !states.add(hash);
 		//
-		return new Result(reads,data);
+		long frame = captureFrame ? tinyBoy.getFrameHash() : 0;
+		Result result = new Result(coverage,hash,data,frame,novelty,duplicate,tinyBoy.getCycles(),termination);
+		stats.recordTest(tinyBoy.getCycles() - start, t1 - t0, t2 - t1, System.nanoTime() - t2);
+		FlightRecorder.INSTANCE.commitFuzzTest(event, tinyBoy.getCycles() - start, novelty != EdgeCoverage.NOTHING_NEW,
+				termination == Termination.TIMEOUT, termination.name());
+		return result;
 	}
 
 	/**
-	 * Create a TinyBoy emulator which has an optional graphical display.
+	 * Execute a given input until it is exhausted, the cycle budget is used up, or
+	 * the test stalls. If the input is a cached sequence, checkpoints are recorded
+	 * in the prefix cache along the way. A checkpoint is only taken on the
+	 * boundary between two pulses, since the state at that point depends only
+	 * upon the pulses already read.
 	 *
+	 * @param tinyBoy
+	 * @param input
+	 * @param sequence
+	 *            The input as a sequence to record checkpoints for, or
+	 *            <code>null</code> if none should be recorded.
+	 * @param instrument
+	 * @param checkpoint
+	 *            The checkpoint execution resumed from, or <code>null</code> if
+	 *            execution started from the beginning.
 	 * @return
+	 * @throws HaltedException
 	 */
-	private ExtendedTinyBoyEmulator createTinyBoy(boolean gui) {
-		SymbolicPullWire[] wires = new SymbolicPullWire[4];
-		wires[ControlPad.Button.UP.ordinal()] = new SymbolicPullWire("PB1", "MISO", "DO", "AIN1", "OC0B", "OC1A", "PCINT1");
-		wires[ControlPad.Button.DOWN.ordinal()] = new SymbolicPullWire("PB3", "PCINT3", "XTAL1", "CLK1", "!OC1B", "ADC3");
-		wires[ControlPad.Button.LEFT.ordinal()] = new SymbolicPullWire("PB4", "PCINT4", "XTAL2", "CLK0", "OC1B", "ADC2");
-		wires[ControlPad.Button.RIGHT.ordinal()] = new SymbolicPullWire("PB5", "PCINT5", "!RESET", "ADC0", "dW");
-		return new ExtendedTinyBoyEmulator(wires,gui);
+	private Termination execute(ExtendedTinyBoyEmulator tinyBoy, Iterator<Boolean> input,
+			@Nullable TinyBoyInputSequence sequence, ReadWriteInstrument instrument,
+			PrefixCache.@Nullable Checkpoint checkpoint) throws HaltedException {
+		final EdgeCoverage edges = tinyBoy.getEdges();
+		final int n = sequence != null ? sequence.length() : 0;
+		int last = checkpoint != null ? checkpoint.length() : 0;
+		// Track progress for stall detection. A resumed run carries on from where the
+		// run which recorded the checkpoint was.
+		int taken = edges.getNewEdges();
+		long lastNew = checkpoint != null ? checkpoint.getLastProgress() : tinyBoy.getCycles();
+		long longestGap = checkpoint != null ? checkpoint.getLongestGap() : 0;
+		while (input.hasNext()) {
+			long now = tinyBoy.getCycles();
+			if (now >= cycleBudget) {
+				return Termination.TIMEOUT;
+			} else if (stallThreshold > 0 && (now - lastNew) >= Math.max(stallThreshold, STALL_FACTOR * longestGap)) {
+				return Termination.STALLED;
+			}
+			tinyBoy.clock();
+			if (edges.getNewEdges() != taken) {
+				taken = edges.getNewEdges();
+				longestGap = Math.max(longestGap, now - lastNew);
+				lastNew = now;
+			}
+			if (sequence != null) {
+				int p = sequence.position();
+				if (p != last && p <= n && (p % CHECKPOINT_INTERVAL) == 0 && sequence.isOnBoundary()) {
+					BitSet coverage = (BitSet) instrument.getReads().clone();
+					cache.record(sequence, p, tinyBoy.snapshot(), coverage, edges.save(), lastNew, longestGap);
+					last = p;
+				}
+			}
+		}
+		return Termination.COMPLETED;
 	}
 
 	/**
-	 * Pull inputs from the generator into one or more batches for execution.
-	 * @param <T>
-	 * @param array
-	 * @param b
+	 * Create a TinyBoy emulator which has an optional graphical display.
+	 *
+	 * @param gui
+	 * @param display
+	 *            Indicates whether the display must be kept up to date, even when
+	 *            there is no graphical display.
 	 * @return
 	 */
-	private static <T extends Iterator<Boolean>> int copyToArray(Iterator<Boolean>[] array, InputGenerator<T> b) {
-		int i = 0;
-		// Read items into array
-		while (b.hasMore() && i < array.length) {
-			array[i++] = b.generate();
-		}
-		// Reset any trailing items
-		Arrays.fill(array,i,array.length,null);
-		// Done
-		return i;
+	private ExtendedTinyBoyEmulator createTinyBoy(boolean gui, boolean display) {
+		return new ExtendedTinyBoyEmulator(SymbolicPullWire.createButtons(),gui,display,virgin);
 	}
 
 	private static class ExtendedTinyBoyEmulator extends TinyBoyEmulator {
 		private final SymbolicPullWire[] wires;
 		private final JPeripheral view;
+		/**
+		 * Indicates whether the peripherals are clocked when there is no view (which
+		 * otherwise clocks them). This is only needed when the frame shown on the
+		 * display is examined, since nothing else depends upon it.
+		 */
+		private final boolean peripherals;
+		private final EdgeCoverage edges;
+		private final ReadWriteInstrument instrument = new ReadWriteInstrument();
 
-		public ExtendedTinyBoyEmulator(SymbolicPullWire[] wires, boolean gui) {
-			super(labels -> getWire(wires,labels));
+		public ExtendedTinyBoyEmulator(SymbolicPullWire[] wires, boolean gui, boolean peripherals, byte[] virgin) {
+			super(labels -> SymbolicPullWire.select(wires,labels));
 			this.wires = wires;
+			this.peripherals = peripherals;
+			this.edges = new EdgeCoverage(virgin);
 			this.getAVR().setCode(new InstrumentableMemory(getAVR().getCode()));
 			if(gui) {
 				this.view = new TinyBoyPeripheral(this);
@@ -261,28 +728,20 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 		}
 
 		public void bind(Iterator<Boolean> input) {
-			for(int i=0;i!=wires.length;++i) {
-				wires[i].bind(input);
-			}
+			// NOTE: wires read from a primitive source to avoid boxing on every read.
+			SymbolicPullWire.bind(wires, InputSource.of(input));
 		}
 
 		public JPeripheral getView() {
 			return view;
 		}
 
-		private static Wire getWire(SymbolicPullWire[] wires, String[] labels) {
-			switch(labels[0]) {
-			case "PB1": // Up
-				return wires[Button.UP.ordinal()];
-			case "PB3": // Down
-				return wires[Button.DOWN.ordinal()];
-			case "PB4": // Left
-				return wires[Button.LEFT.ordinal()];
-			case "PB5": // Right
-				return wires[Button.RIGHT.ordinal()];
-			default:
-				return new IdealWire(labels);
-			}
+		public EdgeCoverage getEdges() {
+			return edges;
+		}
+
+		public ReadWriteInstrument getInstrument() {
+			return instrument;
 		}
 
 		@Override
@@ -291,9 +750,13 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 			if(view != null) {
 				// Clock peripheral first
 				view.clock();
+			} else if(peripherals) {
+				clockPeripherals();
 			}
 			// Clock AVR second
-			mcu.clock();
+			step();
+			// Record the edge just taken
+			edges.visit(mcu.getPC());
 		}
 
 		@Override
@@ -314,74 +777,6 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 	}
 
 
-	private static class SymbolicPullWire implements Wire {
-		private final String[] labels;
-		private Iterator<Boolean> input;
-
-		public SymbolicPullWire(String... labels) {
-			this.labels = labels;
-			// Default input
-			this.input = new Iterator<Boolean>() {
-
-				@Override
-				public boolean hasNext() {
-					return false;
-				}
-
-				@Override
-				public Boolean next() {
-					return false;
-				}
-
-			};
-		}
-
-		public void bind(Iterator<Boolean> input) {
-			this.input = input;
-		}
-		@Override
-		public String[] getLabels() {
-			return labels;
-		}
-
-		@Override
-		public boolean hasLabel(String label) {
-			for(int i=0;i!=labels.length;++i) {
-				if(labels[i].equals(label)) {
-					return true;
-				}
-			}
-			return false;
-		}
-
-		@Override
-		public boolean read() {
-			return input.next();
-		}
-
-		@Override
-		public boolean write(boolean value) {
-			return false;
-		}
-
-		@Override
-		public boolean isRising() {
-			return false;
-		}
-
-		@Override
-		public boolean clock() {
-			// TODO Auto-generated method stub
-			return false;
-		}
-
-		@Override
-		public void reset() {
-			// no-op
-		}
-
-	}
-
 	/**
 	 * Read the contents of memory into a byte array.
 	 *
@@ -396,22 +791,6 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 		return bytes;
 	}
 
-	/**
-	 * Attempt to read the next input from the inputs sequence. If no such input
-	 * exists, return a default value instead.
-	 *
-	 * @param inputs
-	 *            The sequence of inputs being read.
-	 * @return
-	 */
-	private boolean readNext(Iterator<Boolean> inputs) {
-		if (inputs.hasNext()) {
-			return inputs.next();
-		} else {
-			return false;
-		}
-	}
-
 	/**
 	 * An input generator is responsible for generating inputs which are fed into
 	 * the testing tool.
@@ -420,6 +799,11 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 	 *
 	 */
 	public interface InputGenerator<T extends Iterator<Boolean>> {
+		/**
+		 * Passed as the final state of a test when it was not captured.
+		 */
+		public static final byte @NonNull [] NO_STATE = new byte[0];
+
 		/**
 		 * Get the next generated input.
 		 *
@@ -429,19 +813,108 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 
 		/**
 		 * Record the result of a given test. That is, for a generated input, record the
-		 * actual set of covered instructions along with the final state.
+		 * actual set of covered instructions along with the final state. The final
+		 * state is empty when it was not captured (see <code>needsState()</code>).
 		 *
 		 * @param input
 		 * @param output
 		 */
 		public void record(@NonNull T input, @NonNull BitSet output, byte @NonNull [] state);
 
+		/**
+		 * Record the complete result of a given test. This provides additional
+		 * feedback, such as whether any new edges were taken, which generators can
+		 * exploit by overriding this method.
+		 *
+		 * @param input
+		 * @param result
+		 */
+		public default void record(@NonNull T input, @NonNull Result result) {
+			record(input, result.getCodeExecuted(), result.hasState() ? result.getState() : NO_STATE);
+		}
+
+		/**
+		 * Indicates whether this generator needs a full copy of the final state for
+		 * each test. Generators which only use the state hash, or not state at all,
+		 * should override this to avoid the cost of copying it.
+		 *
+		 * @return
+		 */
+		public default boolean needsState() {
+			return true;
+		}
+
+		/**
+		 * Indicates whether this generator needs the hash of the final frame shown on
+		 * the display for each test (see <code>Result.getFrameHash()</code>). If so,
+		 * the display is clocked even when there is no graphical display, which slows
+		 * every test a little.
+		 *
+		 * @return
+		 */
+		public default boolean needsFrameHash() {
+			return false;
+		}
+
 		/**
 		 * Indicates whether or not the generator is finished.
 		 *
 		 * @return
 		 */
 		public boolean hasMore();
+
+		/**
+		 * Signals the end of a campaign (i.e. call to <code>run()</code>), whether it
+		 * reached its target, exhausted this generator or failed. Any inputs
+		 * generated but not yet recorded will never be recorded, and generators
+		 * holding onto such inputs should override this to release them.
+		 */
+		public default void finish() {
+		}
+	}
+
+	/**
+	 * Represents the outcome of processing an input on a worker thread. This is
+	 * either a result or the error which prevented one.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static class Outcome {
+		private final Iterator<Boolean> input;
+		private final Result result;
+		private final Throwable error;
+
+		public Outcome(Iterator<Boolean> input, Result result, Throwable error) {
+			this.input = input;
+			this.result = result;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Identifies why a fuzzing run ended.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public enum Termination {
+		/**
+		 * The input was exhausted.
+		 */
+		COMPLETED,
+		/**
+		 * The AVR halted.
+		 */
+		HALTED,
+		/**
+		 * The cycle budget was used up before the input was exhausted.
+		 */
+		TIMEOUT,
+		/**
+		 * No new edges were taken for too long.
+		 */
+		STALLED
 	}
 
 	/**
@@ -456,13 +929,56 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 		 */
 		private final @NonNull BitSet code;
 		/**
-		 * State of machine memory at end of run.
+		 * Hash of the machine memory at end of run.
+		 */
+		private final long hash;
+		/**
+		 * State of machine memory at end of run, or <code>null</code> if this was
+		 * not captured.
+		 */
+		private final byte @Nullable [] state;
+		/**
+		 * Hash of the frame on the display at end of run, or zero if this was not
+		 * captured.
+		 */
+		private final long frame;
+		/**
+		 * Indicates whether this run took any new edges (see EdgeCoverage).
+		 */
+		private final int novelty;
+		/**
+		 * Indicates whether an earlier run ended in the same state.
 		 */
-		private final byte @NonNull [] state;
+		private final boolean duplicate;
+		/**
+		 * Number of cycles executed from reset to the end of this run.
+		 */
+		private final long cycles;
+		/**
+		 * Indicates why this run ended.
+		 */
+		private final @NonNull Termination termination;
 
 		public Result(@NonNull BitSet coverage, byte @NonNull [] state) {
+			this(coverage, TinyBoyEmulator.hash(state), state, EdgeCoverage.NOTHING_NEW, false, 0,
+					Termination.COMPLETED);
+		}
+
+		public Result(@NonNull BitSet coverage, long hash, byte @Nullable [] state, int novelty, boolean duplicate,
+				long cycles, @NonNull Termination termination) {
+			this(coverage, hash, state, 0, novelty, duplicate, cycles, termination);
+		}
+
+		public Result(@NonNull BitSet coverage, long hash, byte @Nullable [] state, long frame, int novelty,
+				boolean duplicate, long cycles, @NonNull Termination termination) {
+			this.frame = frame;
+			this.cycles = cycles;
+			this.termination = termination;
 			this.code = coverage;
+			this.hash = hash;
 			this.state = state;
+			this.novelty = novelty;
+			this.duplicate = duplicate;
 		}
 
 		/**
@@ -475,12 +991,86 @@ public class AutomatedTester<T extends Iterator<Boolean>> {
 		}
 
 		/**
-		 * Get the state of memory at the end of the this run.
+		 * Get a hash of the state of memory at the end of this run. Runs ending in
+		 * the same state have the same hash.
+		 *
+		 * @return
+		 */
+		public long getStateHash() {
+			return hash;
+		}
+
+		/**
+		 * Check whether the complete state of memory was captured for this run.
+		 *
+		 * @return
+		 */
+		public boolean hasState() {
+			return state != null;
+		}
+
+		/**
+		 * Get the state of memory at the end of the this run. This is only available
+		 * when the generator requested it.
 		 *
 		 * @return
 		 */
 		public byte @NonNull [] getState() {
+			if (state == null) {
+				throw new IllegalStateException("final state not captured");
+			}
 			return state;
 		}
+
+		/**
+		 * Get the hash of the frame on the display at the end of this run (see
+		 * <code>TinyBoyEmulator.getFrameHash()</code>). This is only available when
+		 * the generator requested it, and is otherwise zero.
+		 *
+		 * @return
+		 */
+		public long getFrameHash() {
+			return frame;
+		}
+
+		/**
+		 * Determine whether this run took a new edge, took a known edge a new number
+		 * of times, or did nothing new. This is one of the constants defined in
+		 * EdgeCoverage.
+		 *
+		 * @return
+		 */
+		public int getNovelty() {
+			return novelty;
+		}
+
+		/**
+		 * Check whether an earlier run ended in the same state as this one. Since
+		 * descendants of such a run are likely to retrace the paths of the earlier
+		 * run, generators should avoid spending effort on it.
+		 *
+		 * @return
+		 */
+		public boolean isDuplicate() {
+			return duplicate;
+		}
+
+		/**
+		 * Get the number of cycles executed from reset to the end of this run.
+		 *
+		 * @return
+		 */
+		public long getCycles() {
+			return cycles;
+		}
+
+		/**
+		 * Determine why this run ended.
+		 *
+		 * @return
+		 */
+		public @NonNull Termination getTermination() {
+			return termination;
+		}
 	}
 }
@@ -0,0 +1,187 @@
+package tinyboy.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import javr.io.HexFile;
+import tinyboy.core.TinyBoyInputSequence;
+
+/**
+ * Reduces a corpus of inputs to a (near) minimal subset with the same
+ * coverage. Every input is first replayed to determine what it covers, using
+ * several emulators in parallel. Then, a subset is chosen greedily by
+ * repeatedly picking the input which covers the most not yet covered, where
+ * shorter inputs are preferred when there is a tie. Since branch coverage is
+ * determined by the instructions covered, the subset also preserves branch
+ * coverage.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CorpusDistiller {
+	private final HexFile firmware;
+	private final int nthreads;
+	private long cycleBudget = Long.MAX_VALUE;
+
+	public CorpusDistiller(HexFile firmware, int nthreads) {
+		this.firmware = firmware;
+		this.nthreads = nthreads;
+	}
+
+	/**
+	 * Set the maximum number of cycles for which any input is replayed (see
+	 * <code>AutomatedTester.setCycleBudget()</code>).
+	 *
+	 * @param cycles
+	 */
+	public void setCycleBudget(long cycles) {
+		this.cycleBudget = cycles;
+	}
+
+	/**
+	 * Distill a given corpus, returning the chosen inputs in the order they were
+	 * chosen (i.e. most valuable first).
+	 *
+	 * @param corpus
+	 * @return
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public List<TinyBoyInputSequence> distill(List<TinyBoyInputSequence> corpus)
+			throws InterruptedException, ExecutionException {
+		Replayer replayer = new Replayer(corpus);
+		AutomatedTester<TinyBoyInputSequence> tester = new AutomatedTester<>(firmware, replayer, false, nthreads, 16);
+		tester.setCycleBudget(cycleBudget);
+		tester.setReporter(metrics -> {
+		});
+		try {
+			tester.run(Double.POSITIVE_INFINITY);
+		} finally {
+			tester.destroy();
+		}
+		return select(corpus, replayer.coverage);
+	}
+
+	/**
+	 * Greedily select a subset of inputs whose combined coverage equals that of
+	 * all inputs. Since the gain of an input never increases as others are
+	 * selected, gains are only recomputed for the input at the head of the queue
+	 * (i.e. the "lazy" greedy algorithm).
+	 *
+	 * @param inputs
+	 * @param coverage
+	 *            The coverage of each input.
+	 * @return
+	 */
+	public static List<TinyBoyInputSequence> select(List<TinyBoyInputSequence> inputs, BitSet[] coverage) {
+		PriorityQueue<Candidate> queue = new PriorityQueue<>();
+		for (int i = 0; i != inputs.size(); ++i) {
+			queue.add(new Candidate(i, inputs.get(i).length(), coverage[i].cardinality()));
+		}
+		BitSet covered = new BitSet();
+		ArrayList<TinyBoyInputSequence> r = new ArrayList<>();
+		while (!queue.isEmpty()) {
+			Candidate c = queue.poll();
+			BitSet fresh = (BitSet) coverage[c.index].clone();
+			fresh.andNot(covered);
+			c.gain = fresh.cardinality();
+			if (c.gain == 0) {
+				continue;
+			}
+			Candidate next = queue.peek();
+			if (next == null || c.compareTo(next) <= 0) {
+				// Still the best choice
+				covered.or(fresh);
+				r.add(inputs.get(c.index));
+			} else {
+				queue.add(c);
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * An input being considered for selection, along with the number of
+	 * locations it would newly cover (as last computed).
+	 */
+	private static final class Candidate implements Comparable<Candidate> {
+		private final int index;
+		private final int length;
+		private int gain;
+
+		public Candidate(int index, int length, int gain) {
+			this.index = index;
+			this.length = length;
+			this.gain = gain;
+		}
+
+		@Override
+		public int compareTo(Candidate o) {
+			if (gain != o.gain) {
+				return Integer.compare(o.gain, gain);
+			} else if (length != o.length) {
+				return Integer.compare(length, o.length);
+			} else {
+				return Integer.compare(index, o.index);
+			}
+		}
+	}
+
+	/**
+	 * Generates each input of the corpus in turn, and records the coverage it
+	 * reached.
+	 */
+	private static final class Replayer implements AutomatedTester.InputGenerator<TinyBoyInputSequence> {
+		private final List<TinyBoyInputSequence> corpus;
+		private final BitSet[] coverage;
+		/**
+		 * Maps each generated input to its position in the corpus.
+		 */
+		private final IdentityHashMap<TinyBoyInputSequence, Integer> indices = new IdentityHashMap<>();
+		private int next;
+
+		public Replayer(List<TinyBoyInputSequence> corpus) {
+			this.corpus = corpus;
+			this.coverage = new BitSet[corpus.size()];
+			for (int i = 0; i != coverage.length; ++i) {
+				coverage[i] = new BitSet();
+			}
+		}
+
+		@Override
+		public @Nullable TinyBoyInputSequence generate() {
+			// NOTE: a fresh copy ensures the input starts from the beginning.
+			TinyBoyInputSequence input = new TinyBoyInputSequence(corpus.get(next));
+			indices.put(input, next);
+			next = next + 1;
+			return input;
+		}
+
+		@Override
+		public void record(@NonNull TinyBoyInputSequence input, AutomatedTester.@NonNull Result result) {
+			coverage[indices.remove(input)] = result.getCodeExecuted();
+		}
+
+		@Override
+		public void record(@NonNull TinyBoyInputSequence input, @NonNull BitSet output, byte @NonNull [] state) {
+			coverage[indices.remove(input)] = output;
+		}
+
+		@Override
+		public boolean needsState() {
+			return false;
+		}
+
+		@Override
+		public boolean hasMore() {
+			return next < corpus.size();
+		}
+	}
+}
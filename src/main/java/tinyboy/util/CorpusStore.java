@@ -0,0 +1,543 @@
+package tinyboy.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import javr.io.HexFile;
+import javr.memory.ElasticByteMemory;
+import tinyboy.core.TinyBoyEmulator;
+import tinyboy.core.TinyBoyInputSequence;
+
+/**
+ * A persistent store of the inputs and coverage found by a fuzzing campaign,
+ * allowing a later campaign to resume where it left off. The store is a single
+ * file which is only ever appended to, and is accessed through a memory
+ * mapping. It begins with a header identifying the firmware (by checksum), so
+ * that a store is never reused against a different build. The header has its
+ * own checksum, so that another process never acts on a partially visible one. This is followed by
+ * a sequence of records, each of which is either an input (with the code it
+ * covered) or a snapshot of the overall coverage. Each record is prefixed by
+ * its length and a checksum of its contents, so that a record torn by a crash
+ * (or not yet fully visible to another process) is recognised and ignored,
+ * along with everything after it.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CorpusStore implements Closeable {
+	private static final long MAGIC = 0x5442434F52505553L; // "TBCORPUS"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 32;
+	private static final int INITIAL_CAPACITY = 1 << 20;
+	/**
+	 * Record holding an input and the code it covered.
+	 */
+	private static final byte INPUT = 1;
+	/**
+	 * Record holding the overall coverage. Only the last such record matters.
+	 */
+	private static final byte COVERAGE = 2;
+	/**
+	 * Size of the prefix of each record, which holds its length and checksum.
+	 */
+	private static final int PREFIX_SIZE = 8;
+
+	private final FileChannel channel;
+	private MappedByteBuffer buffer;
+	/**
+	 * Position at which the next record will be written.
+	 */
+	private int end;
+	/**
+	 * The inputs in this store, in the order they were added.
+	 */
+	private final ArrayList<Entry> entries = new ArrayList<>();
+	/**
+	 * The code covered by all inputs, as last saved.
+	 */
+	private BitSet coverage = new BitSet();
+	/**
+	 * The classified edges seen (see <code>EdgeCoverage.newVirginMap()</code>) as
+	 * last saved, or <code>null</code> if never saved.
+	 */
+	private byte @Nullable [] virgin;
+
+	private CorpusStore(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Open the store in a given file for a given firmware, creating it if it does
+	 * not exist. Any records already in the store are loaded.
+	 *
+	 * @param file
+	 * @param firmware
+	 * @return
+	 * @throws IOException
+	 *             If the store is corrupt, or belongs to a different firmware.
+	 */
+	public static CorpusStore open(Path file, HexFile firmware) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		CorpusStore store = new CorpusStore(channel);
+		try {
+			store.load(checksum(firmware));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		return store;
+	}
+
+	/**
+	 * Compute a checksum which identifies a given firmware.
+	 *
+	 * @param firmware
+	 * @return
+	 */
+	public static long checksum(HexFile firmware) {
+		ElasticByteMemory memory = new ElasticByteMemory();
+		firmware.uploadTo(memory);
+		byte[] bytes = new byte[memory.size()];
+		for (int i = 0; i != bytes.length; ++i) {
+			bytes[i] = memory.peek(i);
+		}
+		return TinyBoyEmulator.hash(bytes);
+	}
+
+	/**
+	 * Get the inputs in this store, in the order they were added.
+	 *
+	 * @return
+	 */
+	public synchronized List<Entry> getEntries() {
+		return new ArrayList<>(entries);
+	}
+
+	/**
+	 * Get the code covered, as last saved.
+	 *
+	 * @return
+	 */
+	public synchronized @NonNull BitSet getCoverage() {
+		return (BitSet) coverage.clone();
+	}
+
+	/**
+	 * Get the classified edges seen, as last saved, or <code>null</code> if they
+	 * have never been saved.
+	 *
+	 * @return
+	 */
+	public synchronized byte @Nullable [] getVirginMap() {
+		byte[] v = virgin;
+		return v != null ? v.clone() : null;
+	}
+
+	/**
+	 * Append an input, along with the code it covered.
+	 *
+	 * @param input
+	 * @param covered
+	 * @throws IOException
+	 */
+	public synchronized void append(@NonNull TinyBoyInputSequence input, @NonNull BitSet covered)
+			throws IOException {
+		long[] pulses = input.pack();
+		long[] bits = covered.toLongArray();
+		int start = begin(1 + 4 + 4 + 8 * pulses.length + 4 + 8 * bits.length);
+		buffer.put(INPUT);
+		buffer.putInt(input.length());
+		putWords(pulses);
+		putWords(bits);
+		commit(start);
+		entries.add(new Entry(new TinyBoyInputSequence(input), (BitSet) covered.clone()));
+	}
+
+	/**
+	 * Save the overall coverage reached so far. This supersedes any coverage
+	 * previously saved.
+	 *
+	 * @param covered
+	 *            The code covered by all inputs.
+	 * @param virgin
+	 *            The classified edges seen (see
+	 *            <code>EdgeCoverage.newVirginMap()</code>).
+	 * @throws IOException
+	 */
+	public synchronized void saveCoverage(@NonNull BitSet covered, byte @NonNull [] virgin) throws IOException {
+		long[] bits = covered.toLongArray();
+		int start = begin(1 + 4 + 8 * bits.length + 4 + virgin.length);
+		buffer.put(COVERAGE);
+		putWords(bits);
+		buffer.putInt(virgin.length);
+		buffer.put(virgin);
+		commit(start);
+		this.coverage = (BitSet) covered.clone();
+		this.virgin = virgin.clone();
+	}
+
+	/**
+	 * Ensure all records appended so far are written to disk.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		buffer.force();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		sync();
+		channel.close();
+	}
+
+	/**
+	 * Read the header and all valid records, or write a fresh header if the file
+	 * is empty. Reading stops at the first record which is incomplete or fails its
+	 * checksum, and the next record will be written in its place.
+	 *
+	 * @param checksum
+	 * @throws IOException
+	 */
+	private void load(long checksum) throws IOException {
+		boolean empty = channel.size() == 0;
+		map(Math.max(INITIAL_CAPACITY, channel.size()));
+		if (empty) {
+			buffer.putLong(0, MAGIC);
+			buffer.putInt(8, VERSION);
+			buffer.putLong(16, checksum);
+			buffer.putInt(24, checksum(slice(buffer, 0, 24)));
+			end = HEADER_SIZE;
+			return;
+		}
+		if (!isValidHeader(buffer) || buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION) {
+			throw new IOException("not a corpus store (or unsupported version)");
+		} else if (buffer.getLong(16) != checksum) {
+			throw new IOException("corpus store belongs to a different firmware");
+		}
+		int pos = HEADER_SIZE;
+		while (pos + PREFIX_SIZE <= buffer.capacity()) {
+			int length = buffer.getInt(pos);
+			if (length <= 0 || (long) pos + PREFIX_SIZE + length > buffer.capacity()) {
+				break;
+			}
+			ByteBuffer record = slice(buffer, pos + PREFIX_SIZE, length);
+			if (checksum(record) != buffer.getInt(pos + 4) || !read(record)) {
+				break;
+			}
+			pos = pos + PREFIX_SIZE + length;
+		}
+		if (pos + 4 <= buffer.capacity()) {
+			// Discard whatever follows the last valid record
+			buffer.putInt(pos, 0);
+		}
+		end = pos;
+	}
+
+	/**
+	 * Read the contents of a record, whose checksum has already been checked.
+	 *
+	 * @param record
+	 * @return False if the record is malformed, in which case nothing is read.
+	 */
+	private boolean read(ByteBuffer record) {
+		try {
+			byte type = record.get();
+			if (type == INPUT) {
+				entries.add(readInput(record));
+				return true;
+			} else if (type == COVERAGE) {
+				BitSet bits = BitSet.valueOf(getWords(record));
+				int n = record.getInt();
+				if (n < 0 || n > record.remaining()) {
+					return false;
+				}
+				byte[] edges = new byte[n];
+				record.get(edges);
+				coverage = bits;
+				virgin = edges;
+				return true;
+			}
+		} catch (IOException | BufferUnderflowException e) {
+			// Malformed record
+		}
+		return false;
+	}
+
+	/**
+	 * Begin a record of a given length, ensuring there is space for it.
+	 *
+	 * @param length
+	 * @return The position of the record.
+	 * @throws IOException
+	 */
+	private int begin(int length) throws IOException {
+		// NOTE: space is included for the terminator following the record.
+		long required = (long) end + PREFIX_SIZE + length + 4;
+		if (required > buffer.capacity()) {
+			long capacity = buffer.capacity();
+			while (capacity < required) {
+				capacity = capacity * 2;
+			}
+			if (capacity > Integer.MAX_VALUE) {
+				throw new IOException("corpus store is full");
+			}
+			map(capacity);
+		}
+		// NOTE: calls which set the position, limit, etc. go through Buffer, as the
+		// ByteBuffer overrides are not present on a Java 8 runtime.
+		((Buffer) buffer).position(end + PREFIX_SIZE);
+		return end;
+	}
+
+	/**
+	 * Complete the record at a given position by writing its checksum and then
+	 * its length. Before this, a zero length is written after the record so that
+	 * nothing left over from a discarded record can be mistaken for its successor.
+	 *
+	 * @param start
+	 */
+	private void commit(int start) {
+		int length = buffer.position() - (start + PREFIX_SIZE);
+		buffer.putInt(buffer.position(), 0);
+		buffer.putInt(start + 4, checksum(slice(buffer, start + PREFIX_SIZE, length)));
+		buffer.putInt(start, length);
+		end = start + PREFIX_SIZE + length;
+	}
+
+	private void map(long capacity) throws IOException {
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private void putWords(long[] words) {
+		buffer.putInt(words.length);
+		for (long w : words) {
+			buffer.putLong(w);
+		}
+	}
+
+	private static long[] getWords(ByteBuffer buffer) throws IOException {
+		int n = buffer.getInt();
+		if (n < 0 || n > buffer.remaining() / 8) {
+			throw new IOException("corrupt corpus store (invalid word count)");
+		}
+		long[] words = new long[n];
+		for (int i = 0; i != words.length; ++i) {
+			words[i] = buffer.getLong();
+		}
+		return words;
+	}
+
+	/**
+	 * Read the body of an input record.
+	 *
+	 * @param buffer
+	 * @return
+	 * @throws IOException
+	 */
+	private static Entry readInput(ByteBuffer buffer) throws IOException {
+		int n = buffer.getInt();
+		long[] pulses = getWords(buffer);
+		TinyBoyInputSequence input;
+		try {
+			input = TinyBoyInputSequence.unpack(pulses, n);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("corrupt corpus store (" + e.getMessage() + ")");
+		}
+		return new Entry(input, BitSet.valueOf(getWords(buffer)));
+	}
+
+	/**
+	 * Check whether a header (read into a given buffer) matches its checksum.
+	 *
+	 * @param header
+	 * @return
+	 */
+	private static boolean isValidHeader(ByteBuffer header) {
+		return checksum(slice(header, 0, 24)) == header.getInt(24);
+	}
+
+	/**
+	 * Get a view of part of a given buffer, which is bounded by that part.
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer r = buffer.duplicate();
+		((Buffer) r).limit(offset + length);
+		((Buffer) r).position(offset);
+		return r.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Compute the checksum of the remaining contents of a given buffer, without
+	 * changing its position.
+	 *
+	 * @param buffer
+	 * @return
+	 */
+	private static int checksum(ByteBuffer buffer) {
+		CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate());
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Follows a store being appended to by another process, returning the inputs
+	 * added since it was last polled. A store belonging to a different firmware
+	 * is ignored. Since nothing orders the writes of the other process with
+	 * respect to the reads made here, a record which is incomplete or fails its
+	 * checksum is assumed to still be in the process of being written. Reading
+	 * stops there, and resumes from that record when next polled.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Reader implements Closeable {
+		private final FileChannel channel;
+		private final long checksum;
+		/**
+		 * Position of the next record to read, or -1 if the header has not yet been
+		 * read.
+		 */
+		private long position = -1;
+		/**
+		 * Indicates the store belongs to a different firmware (or is not a store).
+		 */
+		private boolean ignored;
+
+		public Reader(Path file, HexFile firmware) throws IOException {
+			this.channel = FileChannel.open(file, StandardOpenOption.READ);
+			this.checksum = checksum(firmware);
+		}
+
+		/**
+		 * Read any inputs appended since this was last polled.
+		 *
+		 * @return
+		 * @throws IOException
+		 */
+		public List<Entry> poll() throws IOException {
+			ArrayList<Entry> r = new ArrayList<>();
+			if (ignored || (position < 0 && !readHeader())) {
+				return r;
+			}
+			final long size = channel.size();
+			ByteBuffer prefix = allocate(PREFIX_SIZE);
+			while (position + PREFIX_SIZE <= size && read(prefix, position)) {
+				int length = prefix.getInt(0);
+				if (length <= 0 || position + PREFIX_SIZE + length > size) {
+					break;
+				}
+				ByteBuffer record = allocate(length);
+				if (!read(record, position + PREFIX_SIZE) || checksum(record) != prefix.getInt(4)) {
+					break;
+				}
+				if (record.get() == INPUT) {
+					Entry e = readEntry(record);
+					if (e == null) {
+						break;
+					}
+					r.add(e);
+				}
+				position = position + PREFIX_SIZE + length;
+			}
+			return r;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+		private boolean readHeader() throws IOException {
+			ByteBuffer header = allocate(HEADER_SIZE);
+			if (!read(header, 0) || !isValidHeader(header)) {
+				// Not yet (completely) initialised by its writer
+				return false;
+			}
+			ignored = header.getLong(0) != MAGIC || header.getInt(8) != VERSION || header.getLong(16) != checksum;
+			position = HEADER_SIZE;
+			return !ignored;
+		}
+
+		private boolean read(ByteBuffer buffer, long offset) throws IOException {
+			((Buffer) buffer).clear();
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, offset + buffer.position()) < 0) {
+					return false;
+				}
+			}
+			((Buffer) buffer).flip();
+			return true;
+		}
+
+		/**
+		 * Read the body of an input record, whose checksum has already been checked.
+		 *
+		 * @param record
+		 * @return The entry, or <code>null</code> if the record is malformed.
+		 */
+		private static @Nullable Entry readEntry(ByteBuffer record) {
+			try {
+				return readInput(record);
+			} catch (IOException | BufferUnderflowException e) {
+				return null;
+			}
+		}
+
+		private static ByteBuffer allocate(int size) {
+			return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	/**
+	 * An input held in the store, along with the code it covered.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Entry {
+		private final TinyBoyInputSequence input;
+		private final BitSet coverage;
+
+		private Entry(TinyBoyInputSequence input, BitSet coverage) {
+			this.input = input;
+			this.coverage = coverage;
+		}
+
+		/**
+		 * Get the input itself. This is a fresh copy, so its position is
+		 * independent of any other.
+		 *
+		 * @return
+		 */
+		public @NonNull TinyBoyInputSequence getInput() {
+			return new TinyBoyInputSequence(input);
+		}
+
+		public @NonNull BitSet getCoverage() {
+			return (BitSet) coverage.clone();
+		}
+	}
+}
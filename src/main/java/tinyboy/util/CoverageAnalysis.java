@@ -2,6 +2,7 @@ package tinyboy.util;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.BitSet;
 
 import javr.core.AVR.Memory;
@@ -42,24 +43,137 @@ public class CoverageAnalysis {
 	 */
 	private BitSet coverage;
 
+	/**
+	 * The (byte) addresses of all reachable instructions.
+	 */
+	private final BitSet reachable;
+
+	/**
+	 * The number of reachable instructions.
+	 */
+	private final int instructions;
+
+	/**
+	 * The number of reachable instructions which have been covered.
+	 */
+	private int coveredInstructions;
+
+	/**
+	 * The address of each reachable conditional branch.
+	 */
+	private final int[] branches;
+
+	/**
+	 * Identifies the conditional branches which depend upon a given instruction,
+	 * where the branches for instruction <code>pc</code> are those from
+	 * <code>dependents[dependentsStart[pc]]</code> up to (but not including)
+	 * <code>dependents[dependentsStart[pc+1]]</code>. A branch depends on both
+	 * the instruction following it and its target.
+	 */
+	private final int[] dependentsStart;
+
+	private final int[] dependents;
+
+	/**
+	 * The number of conditional branches which have been covered.
+	 */
+	private int coveredBranches;
+
 	/**
 	 *
 	 * @param firmware
 	 */
 	public CoverageAnalysis(HexFile firmware) {
+		Object event = FlightRecorder.INSTANCE.beginCoverageAnalysis();
 		flash = new ElasticByteMemory();
 		coverage = new BitSet();
 		firmware.uploadTo(flash);
 		this.disassembly = disassemble(flash);
+		this.reachable = new BitSet();
+		int count = 0;
+		int nbranches = 0;
+		for (int i = 0; i != disassembly.length; ++i) {
+			AvrInstruction insn = disassembly[i];
+			if (insn != null) {
+				reachable.set(i << 1, (i << 1) + insn.getWidth());
+				count = count + 1;
+				nbranches += isConditionalBranch(insn) ? 1 : 0;
+			}
+		}
+		this.instructions = count;
+		this.branches = new int[nbranches];
+		// Build index from instructions to the branches depending on them
+		int[] fallthroughs = new int[nbranches];
+		int[] targets = new int[nbranches];
+		this.dependentsStart = new int[disassembly.length + 1];
+		for (int i = 0, j = 0; i != disassembly.length; ++i) {
+			if (isConditionalBranch(i)) {
+				branches[j] = i;
+				fallthroughs[j] = i + disassembly[i].getWidth();
+				targets[j] = getConditionalBranchTarget(i);
+				if (fallthroughs[j] < disassembly.length) {
+					dependentsStart[fallthroughs[j]]++;
+				}
+				if (targets[j] != fallthroughs[j] && targets[j] < disassembly.length) {
+					dependentsStart[targets[j]]++;
+				}
+				j = j + 1;
+			}
+		}
+		for (int i = 0, total = 0; i != dependentsStart.length; ++i) {
+			int n = dependentsStart[i];
+			dependentsStart[i] = total;
+			total += n;
+		}
+		this.dependents = new int[dependentsStart[disassembly.length]];
+		int[] next = Arrays.copyOf(dependentsStart, disassembly.length);
+		for (int j = 0; j != nbranches; ++j) {
+			if (fallthroughs[j] < disassembly.length) {
+				dependents[next[fallthroughs[j]]++] = j;
+			}
+			if (targets[j] != fallthroughs[j] && targets[j] < disassembly.length) {
+				dependents[next[targets[j]]++] = j;
+			}
+		}
+		FlightRecorder.INSTANCE.commitCoverageAnalysis(event, instructions, nbranches);
 	}
 
 	/**
-	 * Record a new set of coverage data.
+	 * Record a new set of coverage data. This only costs time in proportion to the
+	 * number of newly covered locations, since the coverage counters are updated
+	 * incrementally.
 	 *
 	 * @param coverage
+	 * @return True if any location was covered for the first time.
+	 */
+	public boolean record(BitSet coverage) {
+		BitSet fresh = (BitSet) coverage.clone();
+		fresh.andNot(this.coverage);
+		for (int i = fresh.nextSetBit(0); i >= 0; i = fresh.nextSetBit(i + 1)) {
+			// NOTE: locations are covered one at a time, so that a branch is counted only
+			// when the last of its two locations is covered.
+			this.coverage.set(i);
+			int pc = i >> 1;
+			if ((i & 1) == 0 && isReachableInstruction(pc)) {
+				coveredInstructions = coveredInstructions + 1;
+				// Check whether this completes any branches
+				for (int j = dependentsStart[pc]; j != dependentsStart[pc + 1]; ++j) {
+					if (isConditionalBranchCovered(branches[dependents[j]])) {
+						coveredBranches = coveredBranches + 1;
+					}
+				}
+			}
+		}
+		return !fresh.isEmpty();
+	}
+
+	/**
+	 * Get the locations covered by all data recorded so far.
+	 *
+	 * @return
 	 */
-	public void record(BitSet coverage) {
-		this.coverage.or(coverage);
+	public BitSet getCoverage() {
+		return (BitSet) coverage.clone();
 	}
 
 	public boolean wasCovered(int pc) {
@@ -76,69 +190,69 @@ public class CoverageAnalysis {
 
 	public boolean isConditionalBranchCovered(int pc) {
 		if (isConditionalBranch(pc)) {
-			AvrInstruction instruction = disassembly[pc];
-			pc = pc + instruction.getWidth();
-			int target;
-			switch (instruction.getOpcode()) {
-			case BRBC:
-			case BRBS: {
-				FlagRelativeAddress branch = (FlagRelativeAddress) instruction;
-				target = pc + branch.k;
-				break;
-			}
-			case BREQ:
-			case BRGE:
-			case BRHC:
-			case BRHS:
-			case BRID:
-			case BRIE:
-			case BRLO:
-			case BRLT:
-			case BRMI:
-			case BRNE:
-			case BRPL:
-			case BRSH:
-			case BRTC:
-			case BRTS:
-			case BRVC:
-			case BRVS: {
-				RelativeAddress branch = (RelativeAddress) instruction;
-				target = pc + branch.k;
-				//
-				break;
-			}
-			case CPSE:
-			case SBIC:
-			case SBIS:
-			case SBRC:
-			case SBRS: {
-				AvrInstruction following = disassembly[pc];
-				target = pc + following.getWidth();
-				//
-				break;
-			}
-			default:
-				throw new IllegalArgumentException("invalid conditional branch encountered: " + instruction);
-			}
 			// PC at next instruction
 			// TARGET at branch destination
-			return wasCovered(pc) && wasCovered(target);
+			return wasCovered(pc + disassembly[pc].getWidth()) && wasCovered(getConditionalBranchTarget(pc));
 		} else {
 			return false;
 		}
 	}
 
-	public BitSet getReachableInstructions() {
-		BitSet b = new BitSet();
-		for (int i = 0; i != disassembly.length; ++i) {
-			AvrInstruction insn = disassembly[i];
-			if (insn != null) {
-				for(int j=0;j!=insn.getWidth();++j) {
-					b.set((i<<1)+j);
-				}
-			}
+	/**
+	 * Determine the destination of a given conditional branch when it is taken.
+	 *
+	 * @param pc
+	 * @return
+	 */
+	private int getConditionalBranchTarget(int pc) {
+		AvrInstruction instruction = disassembly[pc];
+		pc = pc + instruction.getWidth();
+		switch (instruction.getOpcode()) {
+		case BRBC:
+		case BRBS: {
+			FlagRelativeAddress branch = (FlagRelativeAddress) instruction;
+			return pc + branch.k;
+		}
+		case BREQ:
+		case BRGE:
+		case BRHC:
+		case BRHS:
+		case BRID:
+		case BRIE:
+		case BRLO:
+		case BRLT:
+		case BRMI:
+		case BRNE:
+		case BRPL:
+		case BRSH:
+		case BRTC:
+		case BRTS:
+		case BRVC:
+		case BRVS: {
+			RelativeAddress branch = (RelativeAddress) instruction;
+			return pc + branch.k;
+		}
+		case CPSE:
+		case SBIC:
+		case SBIS:
+		case SBRC:
+		case SBRS: {
+			AvrInstruction following = disassembly[pc];
+			return pc + following.getWidth();
 		}
-		return b;
+		default:
+			throw new IllegalArgumentException("invalid conditional branch encountered: " + instruction);
+		}
+	}
+
+	/**
+	 * Get the (byte) addresses of all reachable instructions. The returned set is
+	 * shared and must not be modified.
+	 *
+	 * @return
+	 */
+	public BitSet getReachableInstructions() {
+		return reachable;
 	}
 
 	/**
@@ -147,35 +261,23 @@ public class CoverageAnalysis {
 	 * @return
 	 */
 	public double getInstructionCoverage() {
-		int count = 0;
-		int covered = 0;
-		// Count total number of reachable instructions
-		for (int i = 0; i != disassembly.length; ++i) {
-			if (disassembly[i] != null) {
-				count = count + 1;
-				covered += coverage.get(i*2) ? 1 : 0;
-			}
-		}
-		return (100.0 * covered) / count;
+		return (100.0 * coveredInstructions) / instructions;
 	}
 
 
 	/**
-	 * Get the branch coverage from this analysis as a percentage.
+	 * Get the branch coverage from this analysis as a percentage. Firmware
+	 * without any conditional branches is considered fully covered.
 	 *
 	 * @return
 	 */
 	public double getBranchCoverage() {
-		int count = 0;
-		int covered = 0;
-		// Count total number of reachable instructions
-		for (int i = 0; i != disassembly.length; ++i) {
-			if (isConditionalBranch(i)) {
-				count = count + 1;
-				covered += isConditionalBranchCovered(i) ? 1 : 0;
-			}
+		if (branches.length == 0) {
+			// NOTE: otherwise, this would be NaN which compares false against any
+			// coverage target.
+			return 100.0;
 		}
-		return (100.0 * covered) / count;
+		return (100.0 * coveredBranches) / branches.length;
 	}
 
 	private static AvrInstruction[] disassemble(Memory memory) {
@@ -0,0 +1,31 @@
+package tinyboy.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event covering the construction of a coverage analysis,
+ * which is dominated by disassembling the firmware. This is disabled by
+ * default.
+ *
+ * @author David J. Pearce
+ *
+ */
+@Name("tinyboy.CoverageAnalysis")
+@Label("Coverage Analysis")
+@Category({ "TinyBoy", "Fuzzing" })
+@Description("Disassembly of a firmware to determine its reachable instructions")
+@Enabled(false)
+@StackTrace(false)
+final class CoverageAnalysisEvent extends Event {
+	@Label("Reachable Instructions")
+	int instructions;
+
+	@Label("Conditional Branches")
+	int branches;
+}
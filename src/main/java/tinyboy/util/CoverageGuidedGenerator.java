@@ -0,0 +1,322 @@
+package tinyboy.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import tinyboy.core.ControlPad;
+import tinyboy.core.TinyBoyInputSequence;
+
+/**
+ * A coverage-guided input generator for the TinyBoy. This maintains a corpus
+ * of inputs which each reached some coverage not reached before, and generates
+ * new inputs by mutating those in the corpus. Each input in the corpus is
+ * assigned an "energy" which determines how many mutations are generated from
+ * it when it is next scheduled. Inputs which lead to new coverage, or which
+ * are short, receive more energy than those which have been mutated
+ * repeatedly without success or whose mutations end in states already seen.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CoverageGuidedGenerator implements AutomatedTester.InputGenerator<TinyBoyInputSequence> {
+	private static final ControlPad.Button[] BUTTONS = ControlPad.Button.values();
+	/**
+	 * Length of the inputs generated before the corpus has any entries.
+	 */
+	private static final int INITIAL_LENGTH = 8;
+	/**
+	 * Number of mutations generated from a seed with average prospects.
+	 */
+	private static final int BASE_ENERGY = 16;
+	/**
+	 * Maximum number of mutations generated from a seed in one go.
+	 */
+	private static final int MAX_ENERGY = 256;
+	/**
+	 * Maximum number of idle pulses appended by a single extension.
+	 */
+	private static final int MAX_IDLE = 16;
+
+	private final Random random;
+	/**
+	 * The inputs which have reached new coverage.
+	 */
+	private final ArrayList<Entry> corpus = new ArrayList<>();
+	/**
+	 * Inputs which have been generated but not yet recorded, mapped to the corpus
+	 * entry they were mutated from (if any). This is cleared at the end of each
+	 * campaign.
+	 */
+	private final IdentityHashMap<TinyBoyInputSequence, Entry> pending = new IdentityHashMap<>();
+	/**
+	 * The code locations covered by all inputs recorded so far.
+	 */
+	private final BitSet seen = new BitSet();
+	/**
+	 * The maximum number of inputs to generate.
+	 */
+	private final long limit;
+	/**
+	 * The number of inputs generated so far.
+	 */
+	private long generated;
+	/**
+	 * The position in the corpus of the seed currently being mutated.
+	 */
+	private int index = -1;
+	/**
+	 * The number of mutations remaining for the current seed.
+	 */
+	private int remaining;
+	/**
+	 * Total length of all inputs in the corpus.
+	 */
+	private long totalLength;
+
+	public CoverageGuidedGenerator(long limit, long seed) {
+		this.limit = limit;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Get the inputs currently held in the corpus, in the order they were found.
+	 *
+	 * @return
+	 */
+	public List<TinyBoyInputSequence> getCorpus() {
+		ArrayList<TinyBoyInputSequence> r = new ArrayList<>();
+		for (Entry e : corpus) {
+			r.add(e.input);
+		}
+		return r;
+	}
+
+	/**
+	 * Add an input to the corpus without executing it, for example one found by a
+	 * previous campaign.
+	 *
+	 * @param input
+	 */
+	public void addToCorpus(@NonNull TinyBoyInputSequence input) {
+		corpus.add(new Entry(input));
+		totalLength += input.length();
+	}
+
+	@Override
+	public boolean hasMore() {
+		return generated < limit;
+	}
+
+	@Override
+	public boolean needsState() {
+		return false;
+	}
+
+	@Override
+	public @Nullable TinyBoyInputSequence generate() {
+		generated = generated + 1;
+		Entry parent = null;
+		TinyBoyInputSequence input;
+		if (corpus.isEmpty()) {
+			input = randomSequence(INITIAL_LENGTH);
+		} else {
+			if (remaining == 0) {
+				// Schedule next seed
+				index = (index + 1) % corpus.size();
+				remaining = energy(corpus.get(index));
+				corpus.get(index).rounds++;
+			}
+			remaining = remaining - 1;
+			parent = corpus.get(index);
+			input = mutate(parent.input);
+			// Occasionally stack a second mutation
+			if (random.nextInt(4) == 0) {
+				input = mutate(input);
+			}
+		}
+		pending.put(input, parent);
+		return input;
+	}
+
+	@Override
+	public void record(@NonNull TinyBoyInputSequence input, AutomatedTester.@NonNull Result result) {
+		Entry parent = pending.remove(input);
+		BitSet covered = result.getCodeExecuted();
+		BitSet fresh = (BitSet) covered.clone();
+		fresh.andNot(seen);
+		if (!fresh.isEmpty() || result.getNovelty() == EdgeCoverage.NEW_EDGE) {
+			seen.or(covered);
+			// NOTE: a fresh copy ensures the corpus entry has its own position.
+			addToCorpus(new TinyBoyInputSequence(input));
+			if (parent != null) {
+				parent.discoveries++;
+			}
+		} else if (result.isDuplicate() && parent != null) {
+			// Ended in a known state, so mutating this parent further is less promising.
+			parent.duplicates++;
+		}
+	}
+
+	@Override
+	public void record(@NonNull TinyBoyInputSequence input, @NonNull BitSet output, byte @NonNull [] state) {
+		record(input, new AutomatedTester.Result(output, state));
+	}
+
+	@Override
+	public void finish() {
+		// Inputs still pending will never be recorded, and would otherwise be retained
+		// (along with their parents) for the lifetime of this generator.
+		pending.clear();
+	}
+
+	/**
+	 * Determine how many mutations should be generated from a given seed. This
+	 * favours seeds which have led to new coverage, and those which are shorter
+	 * than average (and hence quicker to execute).
+	 *
+	 * @param e
+	 * @return
+	 */
+	private int energy(Entry e) {
+		double average = ((double) totalLength) / corpus.size();
+		double length = Math.min(4.0, Math.max(0.25, (average + 1) / (e.input.length() + 1)));
+		double success = (1.0 + e.discoveries) / (1.0 + e.rounds + ((double) e.duplicates / BASE_ENERGY));
+		long energy = Math.round(BASE_ENERGY * length * success);
+		return (int) Math.max(1, Math.min(MAX_ENERGY, energy));
+	}
+
+	/**
+	 * Apply a randomly chosen mutation to a given input.
+	 *
+	 * @param input
+	 * @return
+	 */
+	private TinyBoyInputSequence mutate(TinyBoyInputSequence input) {
+		final int n = input.length();
+		if (n == 0) {
+			return extend(input);
+		}
+		switch (random.nextInt(5)) {
+		case 0: {
+			// Insert a run of one button
+			int pos = random.nextInt(n + 1);
+			ControlPad.Button[] pulses = new ControlPad.Button[1 + random.nextInt(8)];
+			Arrays.fill(pulses, randomPulse());
+			return replace(input, pos, pos, pulses);
+		}
+		case 1: {
+			// Delete a range of pulses
+			int pos = random.nextInt(n);
+			int len = 1 + random.nextInt(Math.min(8, n - pos));
+			return replace(input, pos, pos + len, new ControlPad.Button[0]);
+		}
+		case 2: {
+			// Splice with another input from the corpus
+			TinyBoyInputSequence other = corpus.get(random.nextInt(corpus.size())).input;
+			int pos = random.nextInt(n + 1);
+			int start = random.nextInt(other.length() + 1);
+			return replace(input, pos, n, toArray(other, start, other.length()));
+		}
+		case 3: {
+			// Flip a pulse to a different button
+			int pos = random.nextInt(n);
+			ControlPad.Button pulse = randomPulse();
+			while (pulse == input.get(pos)) {
+				pulse = randomPulse();
+			}
+			return replace(input, pos, pos + 1, new ControlPad.Button[] { pulse });
+		}
+		default:
+			return extend(input);
+		}
+	}
+
+	/**
+	 * Extend an input with either idle pulses or a random pulse. Since this shares
+	 * the prefix, it is cheap to construct and its prefix is likely cached.
+	 *
+	 * @param input
+	 * @return
+	 */
+	private TinyBoyInputSequence extend(TinyBoyInputSequence input) {
+		if (random.nextBoolean()) {
+			return input.append(randomPulse());
+		}
+		int m = 1 + random.nextInt(MAX_IDLE);
+		for (int i = 0; i != m; ++i) {
+			input = input.append((ControlPad.Button) null);
+		}
+		return input;
+	}
+
+	/**
+	 * Construct an input by replacing the pulses in a given range of another.
+	 *
+	 * @param input
+	 * @param start
+	 *            First pulse to replace (inclusive).
+	 * @param end
+	 *            Last pulse to replace (exclusive).
+	 * @param pulses
+	 * @return
+	 */
+	private static TinyBoyInputSequence replace(TinyBoyInputSequence input, int start, int end,
+			ControlPad.@Nullable Button[] pulses) {
+		TinyBoyInputSequence r = new TinyBoyInputSequence(toArray(input, 0, start));
+		r = r.append(pulses);
+		return r.append(toArray(input, end, input.length()));
+	}
+
+	private static ControlPad.@Nullable Button[] toArray(TinyBoyInputSequence input, int start, int end) {
+		ControlPad.Button[] pulses = new ControlPad.Button[end - start];
+		for (int i = start; i != end; ++i) {
+			pulses[i - start] = input.get(i);
+		}
+		return pulses;
+	}
+
+	private TinyBoyInputSequence randomSequence(int length) {
+		ControlPad.Button[] pulses = new ControlPad.Button[length];
+		for (int i = 0; i != length; ++i) {
+			pulses[i] = randomPulse();
+		}
+		return new TinyBoyInputSequence(pulses);
+	}
+
+	/**
+	 * Choose a random pulse, where <code>null</code> indicates no button.
+	 *
+	 * @return
+	 */
+	private ControlPad.@Nullable Button randomPulse() {
+		int i = random.nextInt(BUTTONS.length + 1);
+		return i == BUTTONS.length ? null : BUTTONS[i];
+	}
+
+	private static final class Entry {
+		private final TinyBoyInputSequence input;
+		/**
+		 * Number of times this entry has been scheduled.
+		 */
+		private int rounds;
+		/**
+		 * Number of mutations of this entry which reached new coverage.
+		 */
+		private int discoveries;
+		/**
+		 * Number of mutations of this entry which ended in a known state.
+		 */
+		private int duplicates;
+
+		public Entry(TinyBoyInputSequence input) {
+			this.input = input;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package tinyboy.util;
+
+import java.util.Arrays;
+
+/**
+ * Records the control-flow edges taken during a single run of the TinyBoy,
+ * along with how often each was taken. Each edge is a pair of consecutive
+ * program counter values, which is hashed into a fixed-size map of hit
+ * counters. At the end of a run, the counters are classified into coarse
+ * buckets (i.e. 1, 2, 3, 4-7, 8-15, 16-31, 32-127 and 128+ hits) and compared
+ * against a map of those seen so far, to determine whether the run exhibited
+ * any new behaviour. Since only touched counters are classified and cleared,
+ * the cost of each run is proportional to the number of edges it took and no
+ * memory is allocated.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class EdgeCoverage {
+	/**
+	 * The number of counters in an edge map. This must be a power of two.
+	 */
+	public static final int MAP_SIZE = 1 << 16;
+	/**
+	 * Indicates a run exhibited no new behaviour.
+	 */
+	public static final int NOTHING_NEW = 0;
+	/**
+	 * Indicates a run took a known edge a new number of times.
+	 */
+	public static final int NEW_HIT_COUNT = 1;
+	/**
+	 * Indicates a run took an edge never taken before.
+	 */
+	public static final int NEW_EDGE = 2;
+	/**
+	 * Maps a raw hit count onto its bucket.
+	 */
+	private static final byte[] BUCKETS = new byte[256];
+
+	static {
+		for (int i = 1; i != 256; ++i) {
+			int bucket;
+			if (i <= 3) {
+				bucket = i - 1;
+			} else if (i <= 7) {
+				bucket = 3;
+			} else if (i <= 15) {
+				bucket = 4;
+			} else if (i <= 31) {
+				bucket = 5;
+			} else if (i <= 127) {
+				bucket = 6;
+			} else {
+				bucket = 7;
+			}
+			BUCKETS[i] = (byte) (1 << bucket);
+		}
+	}
+
+	/**
+	 * The hit counter for each edge. Counters saturate rather than wrap.
+	 */
+	private final byte[] hits = new byte[MAP_SIZE];
+	/**
+	 * The indices of counters touched during the current run.
+	 */
+	private final int[] touched = new int[MAP_SIZE];
+	/**
+	 * The number of counters touched during the current run.
+	 */
+	private int count;
+	/**
+	 * The (hashed) location of the previously visited instruction.
+	 */
+	private int previous;
+	/**
+	 * Map of the edges seen by earlier runs, or <code>null</code> if none. This is
+	 * only read during a run and, hence, may be slightly out of date when other
+	 * runs are merging into it concurrently.
+	 */
+	private final byte[] virgin;
+	/**
+	 * The number of edges taken during the current run which no earlier run had
+	 * taken (according to the virgin map).
+	 */
+	private int fresh;
+
+	public EdgeCoverage() {
+		this(null);
+	}
+
+	/**
+	 * Construct an edge map which measures the progress of each run against a
+	 * given map of the edges seen so far.
+	 *
+	 * @param virgin
+	 *            Map created by <code>newVirginMap()</code>, or <code>null</code>.
+	 */
+	public EdgeCoverage(byte[] virgin) {
+		this.virgin = virgin;
+	}
+
+	/**
+	 * Create a map of the edges seen so far, which is initially empty. This is
+	 * shared between all runs and updated by <code>merge()</code>.
+	 *
+	 * @return
+	 */
+	public static byte[] newVirginMap() {
+		byte[] virgin = new byte[MAP_SIZE];
+		Arrays.fill(virgin, (byte) 0xFF);
+		return virgin;
+	}
+
+	/**
+	 * Reset this map ready for a new run which starts at a given location.
+	 *
+	 * @param pc
+	 */
+	public void reset(int pc) {
+		clear();
+		previous = hash(pc) >>> 1;
+	}
+
+	/**
+	 * Save the hit counters of the current run, along with the location last
+	 * visited. This allows a run which is resumed part way through (e.g. from a
+	 * cached prefix) to end with the same counters as one executed in full.
+	 *
+	 * @return
+	 */
+	public State save() {
+		int[] indices = Arrays.copyOf(touched, count);
+		byte[] counts = new byte[count];
+		for (int i = 0; i != count; ++i) {
+			counts[i] = hits[indices[i]];
+		}
+		return new State(indices, counts, previous, fresh);
+	}
+
+	/**
+	 * Restore the hit counters and location saved from an earlier run, ready to
+	 * resume it.
+	 *
+	 * @param state
+	 */
+	public void restore(State state) {
+		clear();
+		final int n = state.indices.length;
+		for (int i = 0; i != n; ++i) {
+			int index = state.indices[i];
+			hits[index] = state.counts[i];
+			touched[i] = index;
+		}
+		count = n;
+		previous = state.previous;
+		fresh = state.fresh;
+	}
+
+	/**
+	 * Record that execution has moved to a given location.
+	 *
+	 * @param pc
+	 */
+	public void visit(int pc) {
+		int h = hash(pc);
+		int index = (h ^ previous) & (MAP_SIZE - 1);
+		byte n = hits[index];
+		if (n == 0) {
+			touched[count++] = index;
+			if (virgin != null && virgin[index] == (byte) 0xFF) {
+				fresh = fresh + 1;
+			}
+		}
+		if (n != (byte) 0xFF) {
+			hits[index] = (byte) (n + 1);
+		}
+		// NOTE: shifting distinguishes the edge A->B from B->A, and A->A from B->B.
+		previous = h >>> 1;
+	}
+
+	/**
+	 * Get the number of distinct edges taken during the current run.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Get the number of edges taken during the current run which had not been
+	 * taken by any earlier run when first visited. This measures the progress a
+	 * run is making, and is always zero when there is no virgin map.
+	 *
+	 * @return
+	 */
+	public int getNewEdges() {
+		return fresh;
+	}
+
+	/**
+	 * Classify the hit counters of the current run and merge them into a map of
+	 * those seen so far. This returns whether the run exhibited a new edge, a new
+	 * hit count for an existing edge, or nothing new.
+	 *
+	 * @param virgin
+	 *            Map of the edges seen so far, created by
+	 *            <code>newVirginMap()</code>.
+	 * @return
+	 */
+	public int merge(byte[] virgin) {
+		int result = NOTHING_NEW;
+		synchronized (virgin) {
+			for (int i = 0; i != count; ++i) {
+				int index = touched[i];
+				byte bucket = BUCKETS[hits[index] & 0xFF];
+				byte v = virgin[index];
+				if ((bucket & v) != 0) {
+					result = Math.max(result, v == (byte) 0xFF ? NEW_EDGE : NEW_HIT_COUNT);
+					virgin[index] = (byte) (v & ~bucket);
+				}
+			}
+		}
+		return result;
+	}
+
+	private void clear() {
+		for (int i = 0; i != count; ++i) {
+			hits[touched[i]] = 0;
+		}
+		count = 0;
+		fresh = 0;
+	}
+
+	private static int hash(int pc) {
+		// Spread word addresses over the map
+		int h = pc * 0x9E3779B1;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * The hit counters of a run at some point, as saved by <code>save()</code>.
+	 * This is immutable and, hence, can be shared between threads.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class State {
+		private final int[] indices;
+		private final byte[] counts;
+		private final int previous;
+		private final int fresh;
+
+		private State(int[] indices, byte[] counts, int previous, int fresh) {
+			this.indices = indices;
+			this.counts = counts;
+			this.previous = previous;
+			this.fresh = fresh;
+		}
+	}
+}
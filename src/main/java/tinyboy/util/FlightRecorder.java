@@ -0,0 +1,111 @@
+package tinyboy.util;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Records flight recorder events for the fuzzing hot paths. The events
+ * themselves depend upon <code>jdk.jfr</code>, which is missing from some Java
+ * 8 runtimes. Therefore, they are only loaded (reflectively) when it is
+ * available and, otherwise, this records nothing. Each event is begun by a
+ * <code>begin</code> method, which returns <code>null</code> without
+ * allocating when the event is not enabled, and then passed to the matching
+ * <code>commit</code> method.
+ *
+ * @author David J. Pearce
+ *
+ */
+class FlightRecorder {
+	/**
+	 * Stages of the fuzzing pipeline on the coordinating thread.
+	 */
+	public static final String GENERATE = "generate";
+	public static final String WAIT = "wait";
+	public static final String RECORD = "record";
+
+	/**
+	 * The recorder in use, which records nothing if flight recorder events are
+	 * unavailable.
+	 */
+	public static final FlightRecorder INSTANCE = load();
+
+	/**
+	 * Begin a single fuzz test.
+	 *
+	 * @return
+	 */
+	public @Nullable Object beginFuzzTest() {
+		return null;
+	}
+
+	/**
+	 * Commit a fuzz test begun by <code>beginFuzzTest()</code>.
+	 *
+	 * @param event
+	 * @param cycles
+	 *            Number of cycles simulated.
+	 * @param newCoverage
+	 *            Whether the test took a new edge or a known edge a new number of
+	 *            times.
+	 * @param timeout
+	 *            Whether the test was stopped for exceeding its cycle budget.
+	 * @param termination
+	 */
+	public void commitFuzzTest(@Nullable Object event, long cycles, boolean newCoverage, boolean timeout,
+			String termination) {
+	}
+
+	/**
+	 * Begin one stage of the fuzzing pipeline on the coordinating thread.
+	 *
+	 * @return
+	 */
+	public @Nullable Object beginFuzzStage() {
+		return null;
+	}
+
+	/**
+	 * Commit a stage begun by <code>beginFuzzStage()</code>.
+	 *
+	 * @param event
+	 * @param stage
+	 *            One of <code>GENERATE</code>, <code>WAIT</code> or
+	 *            <code>RECORD</code>.
+	 * @param inputs
+	 *            Number of inputs handled by the stage.
+	 */
+	public void commitFuzzStage(@Nullable Object event, String stage, int inputs) {
+	}
+
+	/**
+	 * Begin the construction of a coverage analysis.
+	 *
+	 * @return
+	 */
+	public @Nullable Object beginCoverageAnalysis() {
+		return null;
+	}
+
+	/**
+	 * Commit the construction of a coverage analysis begun by
+	 * <code>beginCoverageAnalysis()</code>.
+	 *
+	 * @param event
+	 * @param instructions
+	 *            Number of reachable instructions.
+	 * @param branches
+	 *            Number of conditional branches.
+	 */
+	public void commitCoverageAnalysis(@Nullable Object event, int instructions, int branches) {
+	}
+
+	private static FlightRecorder load() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			Class<?> recorder = Class.forName("tinyboy.util.JfrFlightRecorder");
+			return (FlightRecorder) recorder.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			// Flight recorder is not available
+			return new FlightRecorder();
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package tinyboy.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Collects the metrics of a fuzzing campaign. This combines the metrics of
+ * each worker (see <code>WorkerMetrics</code>) with the coverage achieved over
+ * time. Metrics can be exposed over JMX using <code>register()</code> (and
+ * withdrawn using <code>unregister()</code>), or passed periodically to a
+ * <code>MetricsReporter</code>.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class FuzzMetrics implements FuzzMetricsMBean {
+	/**
+	 * Maximum number of coverage samples retained. Once reached, every other
+	 * sample is discarded, such that the history always spans the whole campaign
+	 * at progressively coarser resolution.
+	 */
+	private static final int MAX_SAMPLES = 1024;
+
+	private final WorkerMetrics[] workers;
+	/**
+	 * Time at which the campaign started (in nanoseconds).
+	 */
+	private volatile long start = System.nanoTime();
+	/**
+	 * Number of results recorded so far.
+	 */
+	private volatile long recorded;
+	/**
+	 * Coverage achieved over time, in the order it was sampled.
+	 */
+	private final ArrayList<Sample> coverage = new ArrayList<>();
+	/**
+	 * The name under which these metrics are registered with the platform MBean
+	 * server, or <code>null</code> if they are not registered.
+	 */
+	private @Nullable ObjectName registration;
+
+	public FuzzMetrics(int nworkers) {
+		this.workers = new WorkerMetrics[nworkers];
+		for (int i = 0; i != nworkers; ++i) {
+			workers[i] = new WorkerMetrics();
+		}
+	}
+
+	/**
+	 * Register these metrics with the platform MBean server under a given name.
+	 * If already registered under another name, that registration is withdrawn
+	 * first.
+	 *
+	 * @param name
+	 * @throws JMException
+	 *             If other metrics are already registered under this name.
+	 */
+	public synchronized void register(String name) throws JMException {
+		ObjectName objectName = getObjectName(name);
+		if (objectName.equals(registration)) {
+			return;
+		}
+		unregister();
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		registration = objectName;
+	}
+
+	/**
+	 * Withdraw these metrics from the platform MBean server. This does nothing if
+	 * they are not registered.
+	 *
+	 * @throws JMException
+	 */
+	public synchronized void unregister() throws JMException {
+		ObjectName objectName = registration;
+		if (objectName != null) {
+			registration = null;
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		}
+	}
+
+	/**
+	 * Check whether these metrics are currently registered with the platform
+	 * MBean server.
+	 *
+	 * @return
+	 */
+	public synchronized boolean isRegistered() {
+		return registration != null;
+	}
+
+	/**
+	 * Get the JMX name under which metrics are registered for a given name.
+	 *
+	 * @param name
+	 * @return
+	 * @throws JMException
+	 */
+	public static ObjectName getObjectName(String name) throws JMException {
+		return new ObjectName("tinyboy:type=FuzzMetrics,name=" + ObjectName.quote(name));
+	}
+
+	/**
+	 * Mark the start of a campaign, from which rates are measured. The metrics of
+	 * any earlier campaign are discarded. This must only be called whilst the
+	 * workers are not running.
+	 */
+	public void start() {
+		for (WorkerMetrics w : workers) {
+			w.reset();
+		}
+		synchronized (coverage) {
+			coverage.clear();
+		}
+		this.recorded = 0;
+		this.start = System.nanoTime();
+	}
+
+	/**
+	 * Update the number of results recorded and sample the coverage achieved so
+	 * far.
+	 *
+	 * @param recorded
+	 * @param analysis
+	 */
+	public void update(long recorded, CoverageAnalysis analysis) {
+		this.recorded = recorded;
+		synchronized (coverage) {
+			if (coverage.size() == MAX_SAMPLES) {
+				// Halve the resolution, always keeping the first sample
+				int j = 0;
+				for (int i = 0; i < MAX_SAMPLES; i += 2) {
+					coverage.set(j++, coverage.get(i));
+				}
+				coverage.subList(j, MAX_SAMPLES).clear();
+			}
+			coverage.add(new Sample(getElapsedTime(), analysis.getInstructionCoverage(),
+					analysis.getBranchCoverage()));
+		}
+	}
+
+	public WorkerMetrics getWorker(int index) {
+		return workers[index];
+	}
+
+	/**
+	 * Get the time since the campaign started (in milliseconds).
+	 *
+	 * @return
+	 */
+	public long getElapsedTime() {
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+	/**
+	 * Get the number of results recorded so far.
+	 *
+	 * @return
+	 */
+	public long getRecorded() {
+		return recorded;
+	}
+
+	/**
+	 * Get the coverage achieved over time.
+	 *
+	 * @return
+	 */
+	public List<Sample> getCoverageHistory() {
+		synchronized (coverage) {
+			return new ArrayList<>(coverage);
+		}
+	}
+
+	/**
+	 * Get the distribution of execution times (in nanoseconds) across all
+	 * workers.
+	 *
+	 * @return
+	 */
+	public Histogram getExecuteTimes() {
+		Histogram h = new Histogram();
+		for (WorkerMetrics w : workers) {
+			h.add(w.getExecuteTimes());
+		}
+		return h;
+	}
+
+	@Override
+	public int getWorkerCount() {
+		return workers.length;
+	}
+
+	@Override
+	public long getInputs() {
+		long r = 0;
+		for (WorkerMetrics w : workers) {
+			r += w.getInputs();
+		}
+		return r;
+	}
+
+	@Override
+	public long getCycles() {
+		long r = 0;
+		for (WorkerMetrics w : workers) {
+			r += w.getCycles();
+		}
+		return r;
+	}
+
+	@Override
+	public double getInputsPerSecond() {
+		return (getInputs() * 1000.0) / Math.max(1, getElapsedTime());
+	}
+
+	@Override
+	public double getCyclesPerSecond() {
+		return (getCycles() * 1000.0) / Math.max(1, getElapsedTime());
+	}
+
+	@Override
+	public long getRestoreTime() {
+		long r = 0;
+		for (WorkerMetrics w : workers) {
+			r += w.getRestoreTime();
+		}
+		return r / 1_000_000;
+	}
+
+	@Override
+	public long getExecuteTime() {
+		long r = 0;
+		for (WorkerMetrics w : workers) {
+			r += w.getExecuteTime();
+		}
+		return r / 1_000_000;
+	}
+
+	@Override
+	public long getCaptureTime() {
+		long r = 0;
+		for (WorkerMetrics w : workers) {
+			r += w.getCaptureTime();
+		}
+		return r / 1_000_000;
+	}
+
+	@Override
+	public long getIdleTime() {
+		long r = 0;
+		for (WorkerMetrics w : workers) {
+			r += w.getIdleTime();
+		}
+		return r / 1_000_000;
+	}
+
+	@Override
+	public long getMedianExecuteMicros() {
+		return getExecuteTimes().getValueAtPercentile(50) / 1000;
+	}
+
+	@Override
+	public long getP99ExecuteMicros() {
+		return getExecuteTimes().getValueAtPercentile(99) / 1000;
+	}
+
+	@Override
+	public double getInstructionCoverage() {
+		synchronized (coverage) {
+			return coverage.isEmpty() ? 0 : coverage.get(coverage.size() - 1).getInstructionCoverage();
+		}
+	}
+
+	@Override
+	public double getBranchCoverage() {
+		synchronized (coverage) {
+			return coverage.isEmpty() ? 0 : coverage.get(coverage.size() - 1).getBranchCoverage();
+		}
+	}
+
+	/**
+	 * The coverage achieved at a given point in a campaign.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Sample {
+		private final long time;
+		private final double instructions;
+		private final double branches;
+
+		private Sample(long time, double instructions, double branches) {
+			this.time = time;
+			this.instructions = instructions;
+			this.branches = branches;
+		}
+
+		/**
+		 * Get the time since the campaign started (in milliseconds).
+		 *
+		 * @return
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public double getInstructionCoverage() {
+			return instructions;
+		}
+
+		public double getBranchCoverage() {
+			return branches;
+		}
+	}
+}
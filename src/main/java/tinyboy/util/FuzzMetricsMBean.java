@@ -0,0 +1,36 @@
+package tinyboy.util;
+
+/**
+ * The management interface through which fuzzing metrics are exposed over JMX.
+ * Times are in milliseconds unless stated otherwise.
+ *
+ * @author David J. Pearce
+ *
+ */
+public interface FuzzMetricsMBean {
+	public int getWorkerCount();
+
+	public long getInputs();
+
+	public long getCycles();
+
+	public double getInputsPerSecond();
+
+	public double getCyclesPerSecond();
+
+	public long getRestoreTime();
+
+	public long getExecuteTime();
+
+	public long getCaptureTime();
+
+	public long getIdleTime();
+
+	public long getMedianExecuteMicros();
+
+	public long getP99ExecuteMicros();
+
+	public double getInstructionCoverage();
+
+	public double getBranchCoverage();
+}
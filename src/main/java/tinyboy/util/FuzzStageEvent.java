@@ -0,0 +1,32 @@
+package tinyboy.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event covering one stage of the fuzzing pipeline on the
+ * coordinating thread. That is, generating a batch of inputs, waiting for a
+ * result, or recording a result. This is disabled by default.
+ *
+ * @author David J. Pearce
+ *
+ */
+@Name("tinyboy.FuzzStage")
+@Label("Fuzz Stage")
+@Category({ "TinyBoy", "Fuzzing" })
+@Description("A stage of the fuzzing pipeline on the coordinating thread")
+@Enabled(false)
+@StackTrace(false)
+final class FuzzStageEvent extends Event {
+	@Label("Stage")
+	String stage;
+
+	@Label("Inputs")
+	@Description("Number of inputs handled by this stage")
+	int inputs;
+}
@@ -0,0 +1,41 @@
+package tinyboy.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event covering a single fuzz test, from restoring the
+ * starting state through to capturing the result. This is disabled by default
+ * and must be enabled in the recording settings (e.g.
+ * <code>-XX:StartFlightRecording:settings=...</code>).
+ *
+ * @author David J. Pearce
+ *
+ */
+@Name("tinyboy.FuzzTest")
+@Label("Fuzz Test")
+@Category({ "TinyBoy", "Fuzzing" })
+@Description("Execution of a single input by a fuzzing worker")
+@Enabled(false)
+@StackTrace(false)
+final class FuzzTestEvent extends Event {
+	@Label("Cycles")
+	@Description("Number of cycles simulated")
+	long cycles;
+
+	@Label("New Coverage")
+	@Description("Whether the test took a new edge or a known edge a new number of times")
+	boolean newCoverage;
+
+	@Label("Timeout")
+	@Description("Whether the test was stopped for exceeding its cycle budget")
+	boolean timeout;
+
+	@Label("Termination")
+	String termination;
+}
@@ -0,0 +1,155 @@
+package tinyboy.util;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative values (e.g. durations in nanoseconds) with
+ * bounded relative error. Values are grouped by magnitude (i.e. power of two)
+ * and each magnitude is divided into a fixed number of equally sized
+ * sub-buckets, so that every value is counted with a precision of around 3%.
+ * The counts are held in a single array allocated up front and, hence,
+ * recording a value never allocates. A histogram should only be written by one
+ * thread, though it may be read by others (in which case the result may be
+ * slightly out of date).
+ *
+ * @author David J. Pearce
+ *
+ */
+public class Histogram {
+	/**
+	 * Number of bits used to index the sub-buckets of a magnitude.
+	 */
+	private static final int SUB_BITS = 5;
+	/**
+	 * Number of sub-buckets for each magnitude.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_BUCKETS];
+	/**
+	 * The number of values recorded.
+	 */
+	private long total;
+	/**
+	 * The sum of all values recorded.
+	 */
+	private long sum;
+	/**
+	 * The largest value recorded.
+	 */
+	private long max;
+
+	/**
+	 * Record a given value, where negative values are treated as zero.
+	 *
+	 * @param value
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		counts[index(value)]++;
+		total = total + 1;
+		sum = sum + value;
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Add all values recorded in a given histogram to this histogram.
+	 *
+	 * @param other
+	 */
+	public void add(Histogram other) {
+		for (int i = 0; i != counts.length; ++i) {
+			counts[i] += other.counts[i];
+		}
+		total += other.total;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Remove all recorded values.
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		total = 0;
+		sum = 0;
+		max = 0;
+	}
+
+	/**
+	 * Get the number of values recorded.
+	 *
+	 * @return
+	 */
+	public long getCount() {
+		return total;
+	}
+
+	/**
+	 * Get the largest value recorded, or zero if none.
+	 *
+	 * @return
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Get the mean of the values recorded, or zero if none.
+	 *
+	 * @return
+	 */
+	public double getMean() {
+		return total == 0 ? 0 : ((double) sum) / total;
+	}
+
+	/**
+	 * Get the value below which a given percentage of recorded values fall. This
+	 * is accurate to within the precision of the histogram.
+	 *
+	 * @param percentile
+	 *            Between 0 and 100.
+	 * @return
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long target = (long) Math.ceil((Math.min(100, percentile) / 100) * total);
+		long count = 0;
+		for (int i = 0; i != counts.length; ++i) {
+			count += counts[i];
+			if (count > 0 && count >= target) {
+				return i + 1 == counts.length ? max : Math.min(max, lowestValue(i + 1) - 1);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Determine the index of the bucket holding a given value.
+	 *
+	 * @param value
+	 * @return
+	 */
+	private static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+		int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return ((shift + 1) << SUB_BITS) + sub;
+	}
+
+	/**
+	 * Determine the lowest value held in a given bucket.
+	 *
+	 * @param index
+	 * @return
+	 */
+	private static long lowestValue(int index) {
+		int magnitude = index >>> SUB_BITS;
+		int sub = index & (SUB_BUCKETS - 1);
+		if (magnitude == 0) {
+			return sub;
+		}
+		return ((long) (SUB_BUCKETS + sub)) << (magnitude - 1);
+	}
+}
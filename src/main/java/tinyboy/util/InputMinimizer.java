@@ -0,0 +1,361 @@
+package tinyboy.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import javr.io.HexFile;
+import tinyboy.core.ControlPad;
+import tinyboy.core.TinyBoyInputSequence;
+
+/**
+ * Shrinks an input sequence whilst preserving some property of interest, such
+ * as executing a given instruction or ending on a given frame. This follows the
+ * delta debugging algorithm (ddmin), where the sequence is split into chunks
+ * and the first chunk which can be removed without losing the property is
+ * removed. Once no chunk can be removed, the chunks are made smaller until they
+ * are single pulses. Then, in the same fashion, pulses are simplified by
+ * replacing them with empty pulses (i.e. <code>_</code>). The candidates in each
+ * round are executed concurrently by an <code>AutomatedTester</code> and, hence,
+ * exactly as they would be when fuzzing (e.g. with the same cycle budget and
+ * reasons for ending a run).
+ *
+ * @author David J. Pearce
+ *
+ */
+public class InputMinimizer {
+	/**
+	 * The property which a minimised input must preserve.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public interface Predicate {
+		/**
+		 * Determine whether an input has the property, given the result of executing
+		 * it. As when fuzzing, the code executed only includes reachable
+		 * instructions.
+		 *
+		 * @param result
+		 * @return
+		 */
+		public boolean test(AutomatedTester.@NonNull Result result);
+	}
+
+	/**
+	 * Holds when the instruction at a given address is executed. Reads of the
+	 * address as data (e.g. by <code>LPM</code>) do not count.
+	 *
+	 * @param pc
+	 * @return
+	 */
+	public static Predicate executes(int pc) {
+		return result -> result.getCodeExecuted().get(pc * 2);
+	}
+
+	/**
+	 * Holds when the final frame has a given hash (see
+	 * <code>TinyBoyEmulator.getFrameHash()</code>).
+	 *
+	 * @param hash
+	 * @return
+	 */
+	public static Predicate frameHash(long hash) {
+		return result -> result.getFrameHash() == hash;
+	}
+
+	private final Predicate predicate;
+	/**
+	 * Supplies the candidates of each round to the tester.
+	 */
+	private final Candidates candidates = new Candidates();
+	private final AutomatedTester<TinyBoyInputSequence> tester;
+	private final CoverageAnalysis analysis;
+	/**
+	 * Outcomes of candidates already evaluated, indexed by their pulses. Since
+	 * successive rounds often produce the same candidates, this avoids running
+	 * them again.
+	 */
+	private final HashMap<String, Boolean> outcomes = new HashMap<>();
+	/**
+	 * Number of candidates actually executed.
+	 */
+	private int tests;
+
+	public InputMinimizer(HexFile firmware, Predicate predicate, int nthreads) {
+		this.predicate = predicate;
+		// NOTE: a single input per worker allows a round to stop early.
+		this.tester = new AutomatedTester<>(firmware, candidates, false, nthreads, 1);
+		this.analysis = new CoverageAnalysis(firmware);
+		tester.setReporter(metrics -> {
+		});
+	}
+
+	/**
+	 * Set the maximum number of cycles for which any candidate is executed (see
+	 * <code>AutomatedTester.setCycleBudget()</code>).
+	 *
+	 * @param cycles
+	 */
+	public void setCycleBudget(long cycles) {
+		tester.setCycleBudget(cycles);
+	}
+
+	/**
+	 * Get the number of candidates executed so far.
+	 *
+	 * @return
+	 */
+	public int getTests() {
+		return tests;
+	}
+
+	/**
+	 * Minimise a given input. If the input does not have the property to begin
+	 * with, then it is returned unchanged.
+	 *
+	 * @param input
+	 * @return
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public @NonNull TinyBoyInputSequence minimise(@NonNull TinyBoyInputSequence input)
+			throws InterruptedException, ExecutionException {
+		ControlPad.@Nullable Button[] pulses = toArray(input);
+		ArrayList<ControlPad.@Nullable Button[]> initial = new ArrayList<>();
+		initial.add(pulses);
+		if (evaluate(initial) < 0) {
+			return input;
+		}
+		boolean changed;
+		do {
+			ControlPad.@Nullable Button[] removed = remove(pulses);
+			ControlPad.@Nullable Button[] simplified = simplify(removed);
+			changed = removed.length != pulses.length || simplified != removed;
+			pulses = simplified;
+		} while (changed);
+		return new TinyBoyInputSequence(pulses);
+	}
+
+	/**
+	 * Release the emulators used by this minimiser.
+	 */
+	public void destroy() {
+		tester.destroy();
+	}
+
+	/**
+	 * Repeatedly remove chunks of pulses which are not needed for the property to
+	 * hold, starting with two chunks and doubling the number of chunks each time
+	 * none can be removed.
+	 *
+	 * @param pulses
+	 * @return
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private ControlPad.@Nullable Button[] remove(ControlPad.@Nullable Button[] pulses)
+			throws InterruptedException, ExecutionException {
+		int n = 2;
+		while (pulses.length > 0) {
+			n = Math.min(n, pulses.length);
+			ArrayList<ControlPad.@Nullable Button[]> candidates = new ArrayList<>();
+			for (int i = 0; i != n; ++i) {
+				int start = start(pulses.length, n, i);
+				int end = start(pulses.length, n, i + 1);
+				ControlPad.@Nullable Button[] candidate = new ControlPad.Button[pulses.length - (end - start)];
+				System.arraycopy(pulses, 0, candidate, 0, start);
+				System.arraycopy(pulses, end, candidate, start, pulses.length - end);
+				candidates.add(candidate);
+			}
+			int i = evaluate(candidates);
+			if (i >= 0) {
+				pulses = candidates.get(i);
+				n = Math.max(n - 1, 2);
+			} else if (n == pulses.length) {
+				break;
+			} else {
+				n = n * 2;
+			}
+		}
+		return pulses;
+	}
+
+	/**
+	 * Repeatedly replace chunks of pulses with empty pulses, following the same
+	 * approach as for removal. Only pulses which are not already empty are
+	 * considered.
+	 *
+	 * @param pulses
+	 * @return The given array if nothing could be simplified.
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private ControlPad.@Nullable Button[] simplify(ControlPad.@Nullable Button[] pulses)
+			throws InterruptedException, ExecutionException {
+		int n = 2;
+		while (true) {
+			// Determine pulses which could be simplified
+			int[] indices = new int[pulses.length];
+			int count = 0;
+			for (int i = 0; i != pulses.length; ++i) {
+				if (pulses[i] != null) {
+					indices[count++] = i;
+				}
+			}
+			if (count == 0) {
+				break;
+			}
+			n = Math.min(n, count);
+			ArrayList<ControlPad.@Nullable Button[]> candidates = new ArrayList<>();
+			for (int i = 0; i != n; ++i) {
+				ControlPad.@Nullable Button[] candidate = pulses.clone();
+				for (int j = start(count, n, i); j != start(count, n, i + 1); ++j) {
+					candidate[indices[j]] = null;
+				}
+				candidates.add(candidate);
+			}
+			int i = evaluate(candidates);
+			if (i >= 0) {
+				pulses = candidates.get(i);
+				n = Math.max(n - 1, 2);
+			} else if (n == count) {
+				break;
+			} else {
+				n = n * 2;
+			}
+		}
+		return pulses;
+	}
+
+	/**
+	 * Determine the start of the <code>i</code>th chunk when splitting a given
+	 * number of pulses into <code>n</code> chunks of (almost) equal size.
+	 *
+	 * @param length
+	 * @param n
+	 * @param i
+	 * @return
+	 */
+	private static int start(int length, int n, int i) {
+		return (int) (((long) length * i) / n);
+	}
+
+	/**
+	 * Evaluate a number of candidates concurrently, returning the index of the
+	 * first for which the property holds (or <code>-1</code> if none). Once the
+	 * property is known to hold for some candidate, those after it are no longer
+	 * started, and the outcomes of any already started are ignored. This ensures
+	 * the result does not depend upon the order in which candidates happen to
+	 * complete.
+	 *
+	 * @param candidates
+	 * @return
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private int evaluate(List<ControlPad.@Nullable Button[]> candidates)
+			throws InterruptedException, ExecutionException {
+		int first = candidates.size();
+		ArrayList<TinyBoyInputSequence> inputs = new ArrayList<>();
+		ArrayList<Integer> indices = new ArrayList<>();
+		// NOTE: candidates after one already known to hold are not considered.
+		for (int i = 0; i != first; ++i) {
+			TinyBoyInputSequence input = new TinyBoyInputSequence(candidates.get(i));
+			Boolean holds = outcomes.get(input.toString());
+			if (holds == null) {
+				inputs.add(input);
+				indices.add(i);
+			} else if (holds) {
+				first = i;
+			}
+		}
+		this.candidates.reset(inputs, indices, first);
+		tester.run(analysis, Double.POSITIVE_INFINITY);
+		first = this.candidates.first;
+		return first < candidates.size() ? first : -1;
+	}
+
+	private static ControlPad.@Nullable Button[] toArray(TinyBoyInputSequence input) {
+		ControlPad.@Nullable Button[] pulses = new ControlPad.Button[input.length()];
+		for (int i = 0; i != pulses.length; ++i) {
+			pulses[i] = input.get(i);
+		}
+		return pulses;
+	}
+
+	/**
+	 * Generates the candidates of a round in order, and records whether the
+	 * property holds for each. Generation stops once the property is known to hold
+	 * for some candidate, since those after it cannot be chosen.
+	 */
+	private final class Candidates implements AutomatedTester.InputGenerator<TinyBoyInputSequence> {
+		private List<TinyBoyInputSequence> inputs = new ArrayList<>();
+		/**
+		 * The index in the round of each input.
+		 */
+		private List<Integer> indices = new ArrayList<>();
+		/**
+		 * Maps each generated input to its index in the round.
+		 */
+		private final IdentityHashMap<TinyBoyInputSequence, Integer> pending = new IdentityHashMap<>();
+		/**
+		 * The index of the first candidate known to hold, or the number of candidates
+		 * if none.
+		 */
+		private int first;
+		private int next;
+
+		public void reset(List<TinyBoyInputSequence> inputs, List<Integer> indices, int first) {
+			this.inputs = inputs;
+			this.indices = indices;
+			this.first = first;
+			this.next = 0;
+		}
+
+		@Override
+		public @Nullable TinyBoyInputSequence generate() {
+			TinyBoyInputSequence input = inputs.get(next);
+			pending.put(input, indices.get(next));
+			next = next + 1;
+			return input;
+		}
+
+		@Override
+		public void record(@NonNull TinyBoyInputSequence input, AutomatedTester.@NonNull Result result) {
+			int index = pending.remove(input);
+			boolean holds = predicate.test(result);
+			outcomes.put(input.toString(), holds);
+			tests = tests + 1;
+			if (holds) {
+				first = Math.min(first, index);
+			}
+		}
+
+		@Override
+		public void record(@NonNull TinyBoyInputSequence input, @NonNull BitSet output, byte @NonNull [] state) {
+			record(input, new AutomatedTester.Result(output, state));
+		}
+
+		@Override
+		public boolean needsState() {
+			return false;
+		}
+
+		@Override
+		public boolean needsFrameHash() {
+			return true;
+		}
+
+		@Override
+		public boolean hasMore() {
+			return next < inputs.size() && indices.get(next) < first;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package tinyboy.util;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import jdk.jfr.EventType;
+
+/**
+ * Records the fuzzing events using the flight recorder. This is only loaded by
+ * <code>FlightRecorder</code> when <code>jdk.jfr</code> is available, and must
+ * not be referenced directly from anywhere else.
+ *
+ * @author David J. Pearce
+ *
+ */
+final class JfrFlightRecorder extends FlightRecorder {
+	private final EventType fuzzTest = EventType.getEventType(FuzzTestEvent.class);
+	private final EventType fuzzStage = EventType.getEventType(FuzzStageEvent.class);
+	private final EventType coverageAnalysis = EventType.getEventType(CoverageAnalysisEvent.class);
+
+	@Override
+	public @Nullable Object beginFuzzTest() {
+		if (!fuzzTest.isEnabled()) {
+			return null;
+		}
+		FuzzTestEvent event = new FuzzTestEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void commitFuzzTest(@Nullable Object e, long cycles, boolean newCoverage, boolean timeout,
+			String termination) {
+		FuzzTestEvent event = (FuzzTestEvent) e;
+		if (event != null && event.shouldCommit()) {
+			event.cycles = cycles;
+			event.newCoverage = newCoverage;
+			event.timeout = timeout;
+			event.termination = termination;
+			event.commit();
+		}
+	}
+
+	@Override
+	public @Nullable Object beginFuzzStage() {
+		if (!fuzzStage.isEnabled()) {
+			return null;
+		}
+		FuzzStageEvent event = new FuzzStageEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void commitFuzzStage(@Nullable Object e, String stage, int inputs) {
+		FuzzStageEvent event = (FuzzStageEvent) e;
+		if (event != null && event.shouldCommit()) {
+			event.stage = stage;
+			event.inputs = inputs;
+			event.commit();
+		}
+	}
+
+	@Override
+	public @Nullable Object beginCoverageAnalysis() {
+		if (!coverageAnalysis.isEnabled()) {
+			return null;
+		}
+		CoverageAnalysisEvent event = new CoverageAnalysisEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void commitCoverageAnalysis(@Nullable Object e, int instructions, int branches) {
+		CoverageAnalysisEvent event = (CoverageAnalysisEvent) e;
+		if (event != null && event.shouldCommit()) {
+			event.instructions = instructions;
+			event.branches = branches;
+			event.commit();
+		}
+	}
+}
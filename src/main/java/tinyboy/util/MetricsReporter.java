@@ -0,0 +1,28 @@
+package tinyboy.util;
+
+/**
+ * Receives the metrics of a fuzzing campaign periodically as it runs (see
+ * <code>AutomatedTester.setReporter()</code>).
+ *
+ * @author David J. Pearce
+ *
+ */
+public interface MetricsReporter {
+	/**
+	 * Reports progress on standard error, giving the overall rate at which inputs
+	 * are processed and the coverage achieved.
+	 */
+	public static final MetricsReporter STDERR = metrics -> {
+		long t = Math.max(1, metrics.getElapsedTime());
+		double rate = Math.round((((double) metrics.getRecorded()) / t) * 10000) / 10.0D;
+		System.err.println("Processed " + metrics.getRecorded() + " inputs @ " + rate + " inputs/s with coverage "
+				+ Math.round(metrics.getBranchCoverage()) + "%");
+	};
+
+	/**
+	 * Report the current metrics of a campaign.
+	 *
+	 * @param metrics
+	 */
+	public void report(FuzzMetrics metrics);
+}
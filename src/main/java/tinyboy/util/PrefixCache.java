@@ -0,0 +1,239 @@
+package tinyboy.util;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import tinyboy.core.ControlPad;
+import tinyboy.core.TinyBoyEmulator;
+import tinyboy.core.TinyBoyInputSequence;
+
+/**
+ * Caches the state of the TinyBoy after executing a given prefix of an input
+ * sequence. Since most generated inputs are extensions of earlier inputs, a
+ * new input can resume from the longest cached prefix it shares with an
+ * earlier input and, hence, only the remaining suffix needs to be simulated.
+ * Cached states are held in a trie keyed by pulse, and the number of states
+ * retained is bounded by evicting the least recently used.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class PrefixCache {
+	/**
+	 * Trie node index for a pulse where no button is pressed.
+	 */
+	private static final int IDLE = ControlPad.Button.values().length;
+	/**
+	 * Root of the trie, which corresponds to the empty prefix.
+	 */
+	private final Node root = new Node(null, -1);
+	/**
+	 * Nodes holding a checkpoint in least recently used order.
+	 */
+	private final LinkedHashMap<Node, Node> lru;
+
+	public PrefixCache(final int capacity) {
+		this.lru = new LinkedHashMap<Node, Node>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Node, Node> eldest) {
+				if (size() > capacity) {
+					evict(eldest.getKey());
+					return true;
+				} else {
+					return false;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Get the number of checkpoints currently held in the cache.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return lru.size();
+	}
+
+	/**
+	 * Find the checkpoint for the longest prefix of a given input sequence. If no
+	 * such checkpoint exists, then <code>null</code> is returned.
+	 *
+	 * @param input
+	 * @return
+	 */
+	public synchronized @Nullable Checkpoint lookup(@NonNull TinyBoyInputSequence input) {
+		Node node = root;
+		Node best = null;
+		final int n = input.length();
+		for (int i = 0; i != n; ++i) {
+			node = node.children[index(input.get(i))];
+			if (node == null) {
+				break;
+			} else if (node.checkpoint != null) {
+				best = node;
+			}
+		}
+		if (best == null) {
+			return null;
+		} else {
+			// Mark as recently used
+			lru.get(best);
+			return best.checkpoint;
+		}
+	}
+
+	/**
+	 * Record the state reached after executing the first <code>length</code>
+	 * pulses of a given input sequence.
+	 *
+	 * @param input
+	 * @param length
+	 * @param snapshot
+	 * @param coverage
+	 * @param edges
+	 * @param lastProgress
+	 *            The cycle at which the run last took a new edge.
+	 * @param longestGap
+	 *            The longest number of cycles between new edges so far.
+	 */
+	public synchronized void record(@NonNull TinyBoyInputSequence input, int length,
+			TinyBoyEmulator.@NonNull Snapshot snapshot, @NonNull BitSet coverage,
+			EdgeCoverage.@NonNull State edges, long lastProgress, long longestGap) {
+		Node node = root;
+		for (int i = 0; i != length; ++i) {
+			int j = index(input.get(i));
+			Node child = node.children[j];
+			if (child == null) {
+				child = new Node(node, j);
+				node.children[j] = child;
+			}
+			node = child;
+		}
+		if (node.checkpoint == null) {
+			node.checkpoint = new Checkpoint(length, snapshot, coverage, edges, lastProgress, longestGap);
+			lru.put(node, node);
+		}
+	}
+
+	/**
+	 * Remove the checkpoint from a given node, and then prune any nodes which are
+	 * no longer needed.
+	 *
+	 * @param node
+	 */
+	private void evict(Node node) {
+		node.checkpoint = null;
+		while (node.parent != null && node.checkpoint == null && node.isLeaf()) {
+			node.parent.children[node.index] = null;
+			node = node.parent;
+		}
+	}
+
+	private static int index(ControlPad.@Nullable Button pulse) {
+		return pulse == null ? IDLE : pulse.ordinal();
+	}
+
+	/**
+	 * Represents the state of the TinyBoy after executing a given number of pulses
+	 * from an input sequence, along with the code covered and the edges taken in
+	 * doing so. The progress made by the run is also retained, so that stall
+	 * detection resumes exactly where it left off.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Checkpoint {
+		private final int length;
+		private final TinyBoyEmulator.@NonNull Snapshot snapshot;
+		private final @NonNull BitSet coverage;
+		private final EdgeCoverage.@NonNull State edges;
+		private final long lastProgress;
+		private final long longestGap;
+
+		private Checkpoint(int length, TinyBoyEmulator.@NonNull Snapshot snapshot, @NonNull BitSet coverage,
+				EdgeCoverage.@NonNull State edges, long lastProgress, long longestGap) {
+			this.length = length;
+			this.snapshot = snapshot;
+			this.coverage = coverage;
+			this.edges = edges;
+			this.lastProgress = lastProgress;
+			this.longestGap = longestGap;
+		}
+
+		/**
+		 * Get the number of pulses executed to reach this checkpoint.
+		 *
+		 * @return
+		 */
+		public int length() {
+			return length;
+		}
+
+		public TinyBoyEmulator.@NonNull Snapshot getSnapshot() {
+			return snapshot;
+		}
+
+		/**
+		 * Get the code locations executed to reach this checkpoint. This must not be
+		 * modified.
+		 *
+		 * @return
+		 */
+		public @NonNull BitSet getCoverage() {
+			return coverage;
+		}
+
+		/**
+		 * Get the hit counters of the edges taken to reach this checkpoint.
+		 *
+		 * @return
+		 */
+		public EdgeCoverage.@NonNull State getEdges() {
+			return edges;
+		}
+
+		/**
+		 * Get the cycle at which the run last took a new edge.
+		 *
+		 * @return
+		 */
+		public long getLastProgress() {
+			return lastProgress;
+		}
+
+		/**
+		 * Get the longest number of cycles between new edges before this checkpoint.
+		 *
+		 * @return
+		 */
+		public long getLongestGap() {
+			return longestGap;
+		}
+	}
+
+	private static final class Node {
+		private final Node parent;
+		private final int index;
+		private final Node[] children = new Node[IDLE + 1];
+		private Checkpoint checkpoint;
+
+		public Node(Node parent, int index) {
+			this.parent = parent;
+			this.index = index;
+		}
+
+		public boolean isLeaf() {
+			for (int i = 0; i != children.length; ++i) {
+				if (children[i] != null) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package tinyboy.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded set of state fingerprints which can be safely updated by multiple
+ * threads without locking. This is used to identify runs which end in a state
+ * already reached by an earlier run. The set is organised into small buckets
+ * and, when a bucket is full, a new fingerprint overwrites one of the existing
+ * ones. Thus, the set never grows beyond its initial capacity, at the cost of
+ * occasionally forgetting a state.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class StateCache {
+	/**
+	 * Number of fingerprints in each bucket.
+	 */
+	private static final int WAYS = 4;
+	/**
+	 * Fingerprint used to mark an empty slot.
+	 */
+	private static final long EMPTY = 0;
+
+	private final AtomicLongArray slots;
+	/**
+	 * Mask used to determine the bucket for a given fingerprint.
+	 */
+	private final int mask;
+
+	/**
+	 * Construct a cache holding (at most) a given number of fingerprints. This is
+	 * rounded up to a power of two.
+	 *
+	 * @param capacity
+	 */
+	public StateCache(int capacity) {
+		int buckets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS) * 2 - 1);
+		this.slots = new AtomicLongArray(buckets * WAYS);
+		this.mask = buckets - 1;
+	}
+
+	/**
+	 * Add a given fingerprint to this cache. This returns <code>true</code> if the
+	 * fingerprint was not already present.
+	 *
+	 * @param fingerprint
+	 * @return
+	 */
+	public boolean add(long fingerprint) {
+		if (fingerprint == EMPTY) {
+			fingerprint = 1;
+		}
+		int h = (int) (fingerprint ^ (fingerprint >>> 32));
+		int start = (h & mask) * WAYS;
+		// Check whether already present, or claim an empty slot.
+		for (int i = start; i != start + WAYS; ++i) {
+			long f = slots.get(i);
+			if (f == fingerprint) {
+				return false;
+			} else if (f == EMPTY && slots.compareAndSet(i, EMPTY, fingerprint)) {
+				return true;
+			} else if (slots.get(i) == fingerprint) {
+				// Claimed by another thread with the same fingerprint
+				return false;
+			}
+		}
+		// Bucket is full, so evict one of its fingerprints.
+		slots.set(start + ((h >>> 28) & (WAYS - 1)), fingerprint);
+		return true;
+	}
+}
@@ -0,0 +1,104 @@
+package tinyboy.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+import javr.io.HexFile;
+import tinyboy.core.TinyBoyInputSequence;
+
+/**
+ * A directory through which several fuzzing processes on the same machine
+ * share the inputs they find. Each process (or <i>instance</i>) appends its own
+ * inputs to a corpus store in the directory, named after the instance, and
+ * periodically polls the stores of the other instances for inputs added since
+ * it last looked. Since each store has a single writer and is only appended
+ * to, no locking between processes is required.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SyncDirectory implements Closeable {
+	private static final String SUFFIX = ".corpus";
+
+	private final Path directory;
+	private final HexFile firmware;
+	/**
+	 * The store holding the inputs of this instance.
+	 */
+	private final CorpusStore store;
+	private final Path own;
+	/**
+	 * Readers for the stores of other instances, indexed by file.
+	 */
+	private final HashMap<Path, CorpusStore.Reader> others = new HashMap<>();
+
+	/**
+	 * Join a given sync directory (creating it if necessary) as an instance with
+	 * a given name. Each instance sharing the directory must have a different
+	 * name.
+	 *
+	 * @param directory
+	 * @param instance
+	 * @param firmware
+	 * @throws IOException
+	 */
+	public SyncDirectory(Path directory, String instance, HexFile firmware) throws IOException {
+		Files.createDirectories(directory);
+		this.directory = directory;
+		this.firmware = firmware;
+		this.own = directory.resolve(instance + SUFFIX);
+		this.store = CorpusStore.open(own, firmware);
+	}
+
+	/**
+	 * Get the store to which inputs found by this instance should be appended.
+	 *
+	 * @return
+	 */
+	public CorpusStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Import the inputs added by other instances since this was last called.
+	 * Every such input is returned, rather than only those covering code not yet
+	 * covered here. This is because an input may have been stored for taking a
+	 * new edge, and whether that edge is new to this instance can only be
+	 * determined by executing the input against its own edge coverage.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public List<@NonNull TinyBoyInputSequence> poll() throws IOException {
+		ArrayList<@NonNull TinyBoyInputSequence> r = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path file : files) {
+				if (!file.equals(own) && !others.containsKey(file)) {
+					others.put(file, new CorpusStore.Reader(file, firmware));
+				}
+			}
+		}
+		for (CorpusStore.Reader reader : others.values()) {
+			for (CorpusStore.Entry e : reader.poll()) {
+				r.add(e.getInput());
+			}
+		}
+		return r;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (CorpusStore.Reader reader : others.values()) {
+			reader.close();
+		}
+		store.close();
+	}
+}
@@ -0,0 +1,96 @@
+package tinyboy.util;
+
+/**
+ * Records where the time of a single fuzzing worker goes. Each test is split
+ * into three phases: restoring the TinyBoy to its starting state; executing the
+ * input; and capturing the result. Time spent waiting for the next input is
+ * recorded separately. Metrics are only updated by the worker itself, but can
+ * be read at any time from other threads.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class WorkerMetrics {
+	private volatile long inputs;
+	private volatile long cycles;
+	private volatile long restoreTime;
+	private volatile long executeTime;
+	private volatile long captureTime;
+	private volatile long idleTime;
+	/**
+	 * Distribution of the time taken to execute each input (in nanoseconds).
+	 */
+	private final Histogram executeTimes = new Histogram();
+
+	/**
+	 * Record a completed test. All times are in nanoseconds.
+	 *
+	 * @param cycles
+	 *            The number of cycles simulated.
+	 * @param restore
+	 *            Time taken to restore the starting state.
+	 * @param execute
+	 *            Time taken to execute the input.
+	 * @param capture
+	 *            Time taken to capture the result.
+	 */
+	public void recordTest(long cycles, long restore, long execute, long capture) {
+		this.inputs = inputs + 1;
+		this.cycles = this.cycles + cycles;
+		this.restoreTime = restoreTime + restore;
+		this.executeTime = executeTime + execute;
+		this.captureTime = captureTime + capture;
+		executeTimes.record(execute);
+	}
+
+	/**
+	 * Reset all metrics to zero. This must only be called whilst the worker is not
+	 * running.
+	 */
+	public void reset() {
+		inputs = 0;
+		cycles = 0;
+		restoreTime = 0;
+		executeTime = 0;
+		captureTime = 0;
+		idleTime = 0;
+		executeTimes.reset();
+	}
+
+	/**
+	 * Record time spent waiting for an input (in nanoseconds).
+	 *
+	 * @param time
+	 */
+	public void recordIdle(long time) {
+		this.idleTime = idleTime + time;
+	}
+
+	public long getInputs() {
+		return inputs;
+	}
+
+	public long getCycles() {
+		return cycles;
+	}
+
+	public long getRestoreTime() {
+		return restoreTime;
+	}
+
+	public long getExecuteTime() {
+		return executeTime;
+	}
+
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	public long getIdleTime() {
+		return idleTime;
+	}
+
+	public Histogram getExecuteTimes() {
+		return executeTimes;
+	}
+}
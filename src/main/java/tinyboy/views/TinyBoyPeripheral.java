@@ -11,8 +11,10 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.image.BufferedImage;
 
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
 import javr.core.AVR;
 import javr.core.AVR.HaltedException;
@@ -20,6 +22,7 @@ import javr.core.AvrPeripheral;
 import javr.core.Wire;
 import javrsim.peripherals.JPeripheral;
 import tinyboy.core.ControlPad;
+import tinyboy.core.RealTimeSimulation;
 import tinyboy.core.TinyBoyEmulator;
 
 /**
@@ -33,12 +36,82 @@ public class TinyBoyPeripheral extends JPeripheral {
 	private static final int SCREEN_WIDTH = TinyBoyEmulator.DISPLAY_WIDTH * 4;
 	private static final int SCREEN_HEIGHT = TinyBoyEmulator.DISPLAY_HEIGHT * 4;
 	private static final Color LIGHT_GREEN = Color.decode("0xd9ffb3");
+	/**
+	 * The default number of times per second the display is redrawn.
+	 */
+	public static final int DEFAULT_FRAME_RATE = 60;
 	//
 	private final TinyBoyEmulator tinyBoy;
+	/**
+	 * The simulation thread running the TinyBoy, or null if it is clocked by the
+	 * simulator instead.
+	 */
+	private final RealTimeSimulation simulation;
+	/**
+	 * The display contents as last drawn, with one image pixel per display pixel.
+	 * This is scaled up when painted.
+	 */
+	private final BufferedImage image;
+	/**
+	 * The frame from which the image was last drawn, and the frame being drawn.
+	 */
+	private long[] drawn, frame;
+	/**
+	 * Rows of the display which have changed since the image was last drawn.
+	 */
+	private final long[] dirty = new long[(TinyBoyEmulator.DISPLAY_HEIGHT + 63) >>> 6];
+	/**
+	 * Fires once per frame on the event dispatch thread. This redraws the view
+	 * directly when running on a simulation thread, and otherwise requests a
+	 * redraw from the next clock.
+	 */
+	private final Timer timer;
+	/**
+	 * Indicates a redraw has been requested by the timer but not yet performed by
+	 * <code>clock()</code>.
+	 */
+	private volatile boolean due;
 
 	public TinyBoyPeripheral(TinyBoyEmulator tinyBoy) {
+		this(tinyBoy, DEFAULT_FRAME_RATE);
+	}
+
+	/**
+	 * Construct a view of a given TinyBoy which is redrawn at most a given number
+	 * of times per second.
+	 *
+	 * @param tinyBoy
+	 * @param frameRate
+	 */
+	public TinyBoyPeripheral(TinyBoyEmulator tinyBoy, int frameRate) {
+		this(tinyBoy, null, frameRate);
+	}
+
+	/**
+	 * Construct a view of a TinyBoy which is running on its own simulation
+	 * thread. The view is redrawn on the event dispatch thread at a given number
+	 * of times per second, and button events are passed to the simulation.
+	 *
+	 * @param simulation
+	 * @param frameRate
+	 */
+	public TinyBoyPeripheral(RealTimeSimulation simulation, int frameRate) {
+		this(simulation.getTinyBoy(), simulation, frameRate);
+	}
+
+	private TinyBoyPeripheral(TinyBoyEmulator tinyBoy, RealTimeSimulation simulation, int frameRate) {
 		super("TinyBoy");
 		this.tinyBoy = tinyBoy;
+		this.simulation = simulation;
+		this.image = new BufferedImage(TinyBoyEmulator.DISPLAY_WIDTH, TinyBoyEmulator.DISPLAY_HEIGHT,
+				BufferedImage.TYPE_INT_RGB);
+		this.drawn = new long[TinyBoyEmulator.FRAME_SIZE];
+		this.frame = new long[TinyBoyEmulator.FRAME_SIZE];
+		for (int y = 0; y != image.getHeight(); ++y) {
+			for (int x = 0; x != image.getWidth(); ++x) {
+				image.setRGB(x, y, LIGHT_GREEN.getRGB());
+			}
+		}
 		DisplayPanel dc = new DisplayPanel(SCREEN_WIDTH, SCREEN_HEIGHT);
 		ButtonPanel bp  = new ButtonPanel(256,100);
 		// Add panels
@@ -54,6 +127,9 @@ public class TinyBoyPeripheral extends JPeripheral {
 		setResizable(false);
 		pack();
 		setVisible(true);
+		//
+		this.timer = new Timer(Math.max(1, 1000 / Math.max(1, frameRate)), e -> tick());
+		timer.start();
 	}
 
 	@Override
@@ -66,15 +142,100 @@ public class TinyBoyPeripheral extends JPeripheral {
 		// NOTE: we don't clock the tinyboy including the AVR as this is currently
 		// clocked by the simulator.
 		tinyBoy.clockPeripherals();
-		repaint();
+		if (due) {
+			due = false;
+			refresh();
+		}
 	}
 
 	@Override
 	public void reset() {
-		tinyBoy.reset();
+		if (simulation == null) {
+			tinyBoy.reset();
+		}
+		refresh();
+	}
+
+	@Override
+	public void dispose() {
+		timer.stop();
+		super.dispose();
+	}
+
+	/**
+	 * Called by the timer once per frame. When clocked by the simulator, the
+	 * redraw is normally left to the next clock. However, if no clock has taken
+	 * up the previous request then the simulator is paused (or being stepped)
+	 * and the view is redrawn here instead, so it does not show a stale display
+	 * or stale buttons.
+	 */
+	private void tick() {
+		if (simulation != null || due) {
+			refresh();
+		} else {
+			due = true;
+		}
+	}
+
+	/**
+	 * Bring the image up to date with the display and schedule a repaint. Only
+	 * those pixels which have changed since the image was last drawn are updated.
+	 * This may be called from both the simulator and the event dispatch thread.
+	 */
+	private synchronized void refresh() {
+		boolean changed = true;
+		if (simulation != null) {
+			simulation.readFrame(frame);
+		} else {
+			tinyBoy.readDirtyRows(dirty);
+			changed = false;
+			for (int i = 0; i != dirty.length; ++i) {
+				changed |= dirty[i] != 0;
+			}
+			if (changed) {
+				tinyBoy.readFrame(frame);
+			}
+		}
+		if (changed) {
+			draw();
+		}
 		repaint();
 	}
 
+	/**
+	 * Update those pixels of the image which differ between the frame last drawn
+	 * and the current frame.
+	 */
+	private void draw() {
+		final int width = image.getWidth();
+		synchronized (image) {
+			for (int i = 0; i != frame.length; ++i) {
+				long diff = frame[i] ^ drawn[i];
+				while (diff != 0) {
+					int p = (i << 6) + Long.numberOfTrailingZeros(diff);
+					boolean pixel = (frame[i] & Long.lowestOneBit(diff)) != 0;
+					image.setRGB(p % width, p / width, pixel ? Color.BLACK.getRGB() : LIGHT_GREEN.getRGB());
+					diff &= diff - 1;
+				}
+			}
+		}
+		long[] tmp = drawn;
+		drawn = frame;
+		frame = tmp;
+	}
+
+	private boolean getButtonState(ControlPad.Button button) {
+		return simulation != null ? simulation.getButtonState(button) : tinyBoy.getButtonState(button);
+	}
+
+	private void setButtonState(ControlPad.Button button, boolean value) {
+		if (simulation != null) {
+			simulation.setButtonState(button, value);
+		} else {
+			tinyBoy.setButtonState(button, value);
+		}
+	}
+
 	private class DisplayPanel extends JPanel {
 		/**
 		 * Construct display canvas for a given width and height (in pixels). This
@@ -100,26 +261,16 @@ public class TinyBoyPeripheral extends JPeripheral {
 		}
 
 		/**
-		 * Draw the TinyBoy display.
+		 * Draw the TinyBoy display by scaling up the image of its pixels.
 		 *
 		 * @param g
-		 * @param pw
-		 * @param ph
 		 */
 		private void drawDisplay(Graphics g) {
 			int pw = (getWidth() - 44) / tinyBoy.getDisplayWidth();
 			int ph = (getHeight() - 44) / tinyBoy.getDisplayHeight();
 			//
-			for (int y = 0; y != tinyBoy.getDisplayHeight(); ++y) {
-				for (int x = 0; x != tinyBoy.getDisplayWidth(); ++x) {
-					boolean pixel = tinyBoy.isPixelSet(x, y);
-					if (pixel) {
-						g.setColor(Color.BLACK);
-					} else {
-						g.setColor(LIGHT_GREEN);
-					}
-					g.fillRect(x * pw, y * ph, pw, ph);
-				}
+			synchronized (image) {
+				g.drawImage(image, 0, 0, image.getWidth() * pw, image.getHeight() * ph, null);
 			}
 		}
 	}
@@ -154,13 +305,13 @@ public class TinyBoyPeripheral extends JPeripheral {
 			Rectangle r = g.getClipBounds();
 			g = g.create(r.x,r.y,r.width,r.height);
 			// Draw left button
-			drawBlackButton(g, buttons[ControlPad.Button.LEFT.ordinal()], tinyBoy.getButtonState(ControlPad.Button.LEFT));
+			drawBlackButton(g, buttons[ControlPad.Button.LEFT.ordinal()], getButtonState(ControlPad.Button.LEFT));
 			// Draw up button
-			drawBlackButton(g, buttons[ControlPad.Button.UP.ordinal()], tinyBoy.getButtonState(ControlPad.Button.UP));
+			drawBlackButton(g, buttons[ControlPad.Button.UP.ordinal()], getButtonState(ControlPad.Button.UP));
 			// Draw right button
-			drawBlackButton(g, buttons[ControlPad.Button.RIGHT.ordinal()], tinyBoy.getButtonState(ControlPad.Button.RIGHT));
+			drawBlackButton(g, buttons[ControlPad.Button.RIGHT.ordinal()], getButtonState(ControlPad.Button.RIGHT));
 			// Draw down button
-			drawBlackButton(g, buttons[ControlPad.Button.DOWN.ordinal()], tinyBoy.getButtonState(ControlPad.Button.DOWN));
+			drawBlackButton(g, buttons[ControlPad.Button.DOWN.ordinal()], getButtonState(ControlPad.Button.DOWN));
 		}
 
 		private void drawBlackButton(Graphics g, Rectangle rect, boolean state) {
@@ -186,7 +337,7 @@ public class TinyBoyPeripheral extends JPeripheral {
 		public void mousePressed(MouseEvent e) {
 			ControlPad.Button button = determineButton(e.getX(),e.getY());
 			if(button != null) {
-				tinyBoy.setButtonState(button, true);
+				setButtonState(button, true);
 			}
 		}
 
@@ -194,7 +345,7 @@ public class TinyBoyPeripheral extends JPeripheral {
 		public void mouseReleased(MouseEvent e) {
 			ControlPad.Button button = determineButton(e.getX(),e.getY());
 			if(button != null) {
-				tinyBoy.setButtonState(button, false);
+				setButtonState(button, false);
 			}
 		}
 
@@ -217,8 +368,8 @@ public class TinyBoyPeripheral extends JPeripheral {
 		@Override
 		public void keyPressed(KeyEvent e) {
 			ControlPad.Button b = determineButton(e);
-			if(b != null && !tinyBoy.getButtonState(b)) {
-				tinyBoy.setButtonState(b, true);
+			if(b != null && !getButtonState(b)) {
+				setButtonState(b, true);
 			}
 
 		}
@@ -227,7 +378,7 @@ public class TinyBoyPeripheral extends JPeripheral {
 		public void keyReleased(KeyEvent e) {
 			ControlPad.Button b = determineButton(e);
 			if(b != null) {
-				tinyBoy.setButtonState(b, false);
+				setButtonState(b, false);
 			}
 		}
 
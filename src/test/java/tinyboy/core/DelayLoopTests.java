@@ -0,0 +1,227 @@
+package tinyboy.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import javr.core.AVR.HaltedException;
+import javr.io.HexFile;
+
+/**
+ * Tests that fast-forwarding delay loops is indistinguishable from executing
+ * them, other than in the time taken to do so.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class DelayLoopTests {
+	/**
+	 * Firmware which calls each form of delay loop, including with counters of
+	 * one and zero (i.e. wrapping around). That is:
+	 *
+	 * <pre>
+	 *        ldi r16, 0x5F    ; SP = 0x025F
+	 *        out SPL, r16
+	 *        ldi r16, 0x02
+	 *        out SPH, r16
+	 *        ldi r24, 1
+	 *        rcall dly8
+	 *        ldi r24, 0
+	 *        rcall dly8
+	 *        ldi r24, 10
+	 *        rcall dly8
+	 *        ldi r24, 0x01
+	 *        ldi r25, 0x00
+	 *        rcall dly16
+	 *        ldi r24, 0x00
+	 *        ldi r25, 0x00
+	 *        rcall dly16
+	 *        ldi r24, 0x34
+	 *        ldi r25, 0x12
+	 *        rcall dly16
+	 *        ldi r20, 0x00
+	 *        ldi r21, 0x01
+	 *        ldi r22, 0x01
+	 *        rcall dly24
+	 *        ldi r24, 0
+	 *        rcall dly8
+	 * done:  rjmp done
+	 * dly8:  dec r24
+	 *        brne dly8
+	 *        ret
+	 * dly16: sbiw r24, 1
+	 *        brne dly16
+	 *        ret
+	 * dly24: subi r20, 1
+	 *        sbci r21, 0
+	 *        sbci r22, 0
+	 *        brne dly24
+	 *        ret
+	 * </pre>
+	 */
+	private static final String FIRMWARE = ":100000000FE50DBF02E00EBF81E014D080E012D0FA\n"
+			+ ":100010008AE010D081E090E010D080E090E00DD038\n"
+			+ ":1000200084E392E10AD040E051E061E009D080E051\n"
+			+ ":1000300001D0FFCF8A95F1F708950197F1F7089560\n" + ":0A004000415050406040E1F7089580\n"
+			+ ":00000001FF\n";
+	/**
+	 * The (word) address of <code>done</code> in the above firmware.
+	 */
+	private static final int DONE = 25;
+	/**
+	 * Upper bound on the clocks for which any one run is permitted.
+	 */
+	private static final long LIMIT = 1_000_000_000L;
+	/**
+	 * The fixed input given to each ROM.
+	 */
+	private static final String INPUT = repeat("RRDD__LLUU____RDLU", 20);
+
+	@Test
+	public void test_01() throws IOException {
+		// Every form of loop, including counters which wrap around
+		HexFile firmware = new HexFile.Reader(new StringReader(FIRMWARE)).readAll();
+		Run normal = runUntilDone(firmware, false);
+		Run fast = runUntilDone(firmware, true);
+		assertEquals(normal.cycles, fast.cycles);
+		assertEquals(normal.state, fast.state);
+		assertEquals(normal.frame, fast.frame);
+		// Almost all of the 65536 + 4660 + 65792 + ... iterations are skipped
+		assertTrue(fast.clocks * 100 < normal.clocks);
+	}
+
+	@Test
+	public void test_02() throws IOException {
+		checkRom("fader");
+	}
+
+	@Test
+	public void test_03() throws IOException {
+		checkRom("snake");
+	}
+
+	@Test
+	public void test_04() throws IOException {
+		checkRom("sokoban");
+	}
+
+	@Test
+	public void test_05() throws IOException {
+		checkRom("tetris");
+	}
+
+	/**
+	 * Check a ROM built in the <code>ROMS</code> directory gives the same result
+	 * for a fixed input, with and without fast-forwarding. This is skipped when
+	 * the ROM has not been built.
+	 *
+	 * @param name
+	 * @throws IOException
+	 */
+	private static void checkRom(String name) throws IOException {
+		File file = new File("ROMS", name + ".hex");
+		Assume.assumeTrue(file.exists());
+		HexFile firmware;
+		try (Reader reader = new FileReader(file)) {
+			firmware = new HexFile.Reader(reader).readAll();
+		}
+		Run normal = runInput(firmware, INPUT, false);
+		Run fast = runInput(firmware, INPUT, true);
+		assertEquals(normal.cycles, fast.cycles);
+		assertEquals(normal.state, fast.state);
+		assertEquals(normal.frame, fast.frame);
+	}
+
+	/**
+	 * Run the test firmware until it reaches <code>done</code>.
+	 *
+	 * @param firmware
+	 * @param fastForward
+	 * @return
+	 */
+	private static Run runUntilDone(HexFile firmware, boolean fastForward) {
+		SymbolicPullWire[] wires = SymbolicPullWire.createButtons();
+		TinyBoyEmulator tinyBoy = create(firmware, wires, fastForward);
+		SymbolicPullWire.bind(wires, InputSource.EMPTY);
+		long clocks = 0;
+		try {
+			while (tinyBoy.getAVR().getPC() != DONE && clocks < LIMIT) {
+				tinyBoy.clock();
+				clocks = clocks + 1;
+			}
+		} catch (HaltedException e) {
+			throw new IllegalStateException(e);
+		}
+		return new Run(tinyBoy, clocks);
+	}
+
+	/**
+	 * Run a ROM until a given input has been consumed.
+	 *
+	 * @param firmware
+	 * @param input
+	 * @param fastForward
+	 * @return
+	 */
+	private static Run runInput(HexFile firmware, String input, boolean fastForward) {
+		SymbolicPullWire[] wires = SymbolicPullWire.createButtons();
+		TinyBoyEmulator tinyBoy = create(firmware, wires, fastForward);
+		TinyBoyInputSequence seq = TinyBoyInputSequence.parse(input);
+		SymbolicPullWire.bind(wires, seq);
+		long clocks = 0;
+		try {
+			while (seq.hasNext() && clocks < LIMIT) {
+				tinyBoy.clock();
+				clocks = clocks + 1;
+			}
+		} catch (HaltedException e) {
+			throw new IllegalStateException(e);
+		}
+		return new Run(tinyBoy, clocks);
+	}
+
+	private static TinyBoyEmulator create(HexFile firmware, SymbolicPullWire[] wires, boolean fastForward) {
+		TinyBoyEmulator tinyBoy = new TinyBoyEmulator(labels -> SymbolicPullWire.select(wires, labels));
+		tinyBoy.reset();
+		tinyBoy.upload(firmware);
+		tinyBoy.setFastForward(fastForward);
+		return tinyBoy;
+	}
+
+	private static String repeat(String s, int n) {
+		StringBuilder r = new StringBuilder();
+		for (int i = 0; i != n; ++i) {
+			r.append(s);
+		}
+		return r.toString();
+	}
+
+	/**
+	 * The outcome of one run.
+	 */
+	private static final class Run {
+		public final long cycles;
+		public final long state;
+		public final long frame;
+		public final long clocks;
+
+		public Run(TinyBoyEmulator tinyBoy, long clocks) {
+			if (clocks >= LIMIT) {
+				fail("run did not finish within " + LIMIT + " clocks");
+			}
+			this.cycles = tinyBoy.getCycles();
+			this.state = tinyBoy.getStateHash();
+			this.frame = tinyBoy.getFrameHash();
+			this.clocks = clocks;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package tinyboy.core;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for adapting iterators into input sources.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class InputSourceTests {
+
+	@Test
+	public void test_01() {
+		// An input sequence is already an input source
+		TinyBoyInputSequence seq = TinyBoyInputSequence.parse("UD");
+		assertSame(seq, InputSource.of(seq));
+	}
+
+	@Test
+	public void test_02() {
+		// Any other iterator is adapted, returning false once exhausted
+		InputSource input = InputSource.of(Arrays.asList(true, false, true).iterator());
+		assertTrue(input.hasNext());
+		assertTrue(input.getAsBoolean());
+		assertFalse(input.getAsBoolean());
+		assertTrue(input.hasNext());
+		assertTrue(input.getAsBoolean());
+		assertFalse(input.hasNext());
+		assertFalse(input.getAsBoolean());
+		assertFalse(input.getAsBoolean());
+	}
+
+	@Test
+	public void test_03() {
+		// The empty source has nothing to read
+		assertFalse(InputSource.EMPTY.hasNext());
+		assertFalse(InputSource.EMPTY.getAsBoolean());
+	}
+}
@@ -0,0 +1,87 @@
+package tinyboy.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import javr.core.Wire;
+
+/**
+ * Tests for connecting the buttons of the TinyBoy to an input source.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SymbolicPullWireTests {
+	private static final ControlPad.Button[] BUTTONS = ControlPad.Button.values();
+
+	@Test
+	public void test_01() {
+		// Button pins are given the wire for their button
+		SymbolicPullWire[] wires = SymbolicPullWire.createButtons();
+		assertSame(wires[ControlPad.Button.UP.ordinal()], SymbolicPullWire.select(wires, new String[] { "PB1" }));
+		assertSame(wires[ControlPad.Button.DOWN.ordinal()], SymbolicPullWire.select(wires, new String[] { "PB3" }));
+		assertSame(wires[ControlPad.Button.LEFT.ordinal()], SymbolicPullWire.select(wires, new String[] { "PB4" }));
+		assertSame(wires[ControlPad.Button.RIGHT.ordinal()], SymbolicPullWire.select(wires, new String[] { "PB5" }));
+	}
+
+	@Test
+	public void test_02() {
+		// Other pins are given a fresh wire
+		SymbolicPullWire[] wires = SymbolicPullWire.createButtons();
+		String[] labels = { "PB0", "MOSI" };
+		Wire wire = SymbolicPullWire.select(wires, labels);
+		for (int i = 0; i != wires.length; ++i) {
+			assertNotSame(wires[i], wire);
+		}
+		assertNotSame(wire, SymbolicPullWire.select(wires, labels));
+		assertArrayEquals(labels, wire.getLabels());
+	}
+
+	@Test
+	public void test_03() {
+		// An unbound wire reads low
+		SymbolicPullWire[] wires = SymbolicPullWire.createButtons();
+		for (int i = 0; i != wires.length; ++i) {
+			assertFalse(wires[i].read());
+		}
+	}
+
+	@Test
+	public void test_04() {
+		// Reading each button in turn consumes one pulse, with only the pressed
+		// button reading high
+		SymbolicPullWire[] wires = SymbolicPullWire.createButtons();
+		TinyBoyInputSequence seq = TinyBoyInputSequence.parse("ULDR");
+		SymbolicPullWire.bind(wires, seq);
+		for (int p = 0; p != seq.length(); ++p) {
+			assertEquals(p, seq.position());
+			for (int i = 0; i != wires.length; ++i) {
+				assertEquals(seq.get(p) == BUTTONS[i], wires[i].read());
+			}
+		}
+		assertEquals(seq.length(), seq.position());
+		for (int i = 0; i != wires.length; ++i) {
+			assertFalse(wires[i].read());
+		}
+		assertFalse(seq.hasNext());
+	}
+
+	@Test
+	public void test_05() {
+		// Every button shares the same input
+		SymbolicPullWire[] wires = SymbolicPullWire.createButtons();
+		TinyBoyInputSequence seq = TinyBoyInputSequence.parse("LL");
+		SymbolicPullWire.bind(wires, seq);
+		for (int i = 0; i != 8; ++i) {
+			wires[ControlPad.Button.UP.ordinal()].read();
+		}
+		assertEquals(2, seq.position());
+		assertTrue(seq.isOnBoundary());
+	}
+}
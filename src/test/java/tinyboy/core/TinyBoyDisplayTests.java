@@ -0,0 +1,186 @@
+package tinyboy.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import javr.core.AvrPeripheral;
+import javr.core.Wire;
+import javr.peripherals.DotMatrixDisplay;
+import javr.util.IdealWire;
+
+/**
+ * Checks that the TinyBoy display shows the same pixels as the general purpose
+ * <code>DotMatrixDisplay</code> it replaced, when both are driven by the same
+ * signals.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class TinyBoyDisplayTests {
+	private static final int WIDTH = TinyBoyEmulator.DISPLAY_WIDTH;
+	private static final int HEIGHT = TinyBoyEmulator.DISPLAY_HEIGHT;
+
+	@Test
+	public void test_01() {
+		// Less than one frame
+		check(new Random(1), WIDTH * 3 + 7);
+	}
+
+	@Test
+	public void test_02() {
+		// Exactly one frame
+		check(new Random(2), WIDTH * HEIGHT);
+	}
+
+	@Test
+	public void test_03() {
+		// Wraps around onto a second frame
+		check(new Random(3), (WIDTH * HEIGHT * 2) + 123);
+	}
+
+	@Test
+	public void test_04() {
+		// Reset part way through a frame
+		Driver expected = new Driver(false);
+		Driver actual = new Driver(true);
+		Random random = new Random(4);
+		drive(random, 1000, expected, actual);
+		expected.display.reset();
+		actual.display.reset();
+		compare(expected, actual);
+		drive(random, 1000, expected, actual);
+		compare(expected, actual);
+	}
+
+	@Test
+	public void test_05() {
+		// Clock held high or low for several cycles between pixels
+		Driver expected = new Driver(false);
+		Driver actual = new Driver(true);
+		Random random = new Random(5);
+		for (int i = 0; i != 5000; ++i) {
+			boolean sck = random.nextBoolean();
+			boolean mosi = random.nextBoolean();
+			expected.clock(sck, mosi);
+			actual.clock(sck, mosi);
+		}
+		compare(expected, actual);
+	}
+
+	@Test
+	public void test_06() throws InterruptedException {
+		// Rows read as dirty on another thread whilst pixels are being written.
+		// Copying only those rows must still end up with every pixel shown.
+		Driver driver = new Driver(true);
+		TinyBoyDisplay display = (TinyBoyDisplay) driver.display;
+		long[] shown = new long[TinyBoyEmulator.FRAME_SIZE];
+		long[] frame = new long[TinyBoyEmulator.FRAME_SIZE];
+		long[] rows = new long[(HEIGHT + 63) >>> 6];
+		AtomicBoolean done = new AtomicBoolean();
+		Thread writer = new Thread(() -> {
+			Random random = new Random(6);
+			for (int i = 0; i != WIDTH * HEIGHT * 20; ++i) {
+				boolean mosi = random.nextBoolean();
+				driver.clock(false, mosi);
+				driver.clock(true, mosi);
+			}
+			done.set(true);
+		});
+		writer.start();
+		boolean last;
+		do {
+			last = done.get();
+			display.readDirtyRows(rows);
+			display.readFrame(frame);
+			copyRows(rows, frame, shown);
+		} while (!last);
+		writer.join();
+		for (int y = 0; y != HEIGHT; ++y) {
+			for (int x = 0; x != WIDTH; ++x) {
+				int p = (y * WIDTH) + x;
+				boolean set = (shown[p >>> 6] & (1L << p)) != 0;
+				assertEquals("pixel (" + x + "," + y + ")", display.isSet(x, y), set);
+			}
+		}
+	}
+
+	/**
+	 * Copy the pixels of every dirty row from one frame to another.
+	 */
+	private static void copyRows(long[] rows, long[] from, long[] to) {
+		for (int y = 0; y != HEIGHT; ++y) {
+			if ((rows[y >>> 6] & (1L << y)) != 0) {
+				for (int p = y * WIDTH; p != (y + 1) * WIDTH; ++p) {
+					long bit = 1L << p;
+					to[p >>> 6] = (to[p >>> 6] & ~bit) | (from[p >>> 6] & bit);
+				}
+			}
+		}
+	}
+
+	private static void check(Random random, int pixels) {
+		Driver expected = new Driver(false);
+		Driver actual = new Driver(true);
+		drive(random, pixels, expected, actual);
+		compare(expected, actual);
+	}
+
+	/**
+	 * Shift a given number of random pixels into both displays.
+	 */
+	private static void drive(Random random, int pixels, Driver expected, Driver actual) {
+		for (int i = 0; i != pixels; ++i) {
+			boolean mosi = random.nextBoolean();
+			expected.clock(false, mosi);
+			actual.clock(false, mosi);
+			expected.clock(true, mosi);
+			actual.clock(true, mosi);
+		}
+	}
+
+	private static void compare(Driver expected, Driver actual) {
+		for (int y = 0; y != HEIGHT; ++y) {
+			for (int x = 0; x != WIDTH; ++x) {
+				assertEquals("pixel (" + x + "," + y + ")", expected.isSet(x, y), actual.isSet(x, y));
+			}
+		}
+	}
+
+	/**
+	 * A display along with the wires driving it.
+	 */
+	private static final class Driver {
+		private final Wire sck = new IdealWire("SCK");
+		private final Wire mosi = new IdealWire("MOSI");
+		private final AvrPeripheral display;
+
+		public Driver(boolean tinyBoy) {
+			Wire[] wires = new Wire[] { sck, mosi, Wire.LOW, Wire.LOW };
+			if (tinyBoy) {
+				display = new TinyBoyDisplay(WIDTH, HEIGHT, wires);
+			} else {
+				display = new DotMatrixDisplay(WIDTH, HEIGHT, wires);
+			}
+		}
+
+		public void clock(boolean clk, boolean data) {
+			sck.write(clk);
+			mosi.write(data);
+			sck.clock();
+			mosi.clock();
+			display.clock();
+		}
+
+		public boolean isSet(int x, int y) {
+			if (display instanceof TinyBoyDisplay) {
+				return ((TinyBoyDisplay) display).isSet(x, y);
+			} else {
+				return ((DotMatrixDisplay) display).isSet(x, y);
+			}
+		}
+	}
+}
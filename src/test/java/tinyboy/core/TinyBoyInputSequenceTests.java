@@ -0,0 +1,152 @@
+package tinyboy.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for building, reading and repositioning input sequences, including
+ * those which share their contents with other sequences.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class TinyBoyInputSequenceTests {
+	private static final ControlPad.Button[] BUTTONS = ControlPad.Button.values();
+
+	@Test
+	public void test_01() {
+		// Appending one pulse at a time, across several chunks
+		ControlPad.Button[] pulses = random(new Random(1), 1000);
+		TinyBoyInputSequence seq = new TinyBoyInputSequence();
+		for (int i = 0; i != pulses.length; ++i) {
+			seq = seq.append(pulses[i]);
+		}
+		assertEquals(pulses.length, seq.length());
+		for (int i = 0; i != pulses.length; ++i) {
+			assertEquals(pulses[i], seq.get(i));
+		}
+		assertEquals(new TinyBoyInputSequence(pulses).toString(), seq.toString());
+	}
+
+	@Test
+	public void test_02() {
+		// Sequences appended to a common prefix do not affect each other
+		TinyBoyInputSequence base = TinyBoyInputSequence.parse("LR");
+		TinyBoyInputSequence up = base.append(ControlPad.Button.UP);
+		TinyBoyInputSequence down = base.append(ControlPad.Button.DOWN);
+		TinyBoyInputSequence idle = up.append((ControlPad.Button) null);
+		assertEquals("LR", base.toString());
+		assertEquals("LRU", up.toString());
+		assertEquals("LRD", down.toString());
+		assertEquals("LRU_", idle.toString());
+		assertEquals("LRDL", down.append(ControlPad.Button.LEFT).toString());
+	}
+
+	@Test
+	public void test_03() {
+		// Likewise, when the common prefix ends on a chunk boundary
+		ControlPad.Button[] pulses = random(new Random(3), 1000);
+		for (int n = 300; n != 400; ++n) {
+			TinyBoyInputSequence base = new TinyBoyInputSequence(Arrays.copyOf(pulses, n));
+			TinyBoyInputSequence left = base.append(ControlPad.Button.LEFT);
+			TinyBoyInputSequence right = base.append(ControlPad.Button.RIGHT);
+			assertEquals(n, base.length());
+			assertEquals(ControlPad.Button.LEFT, left.get(n));
+			assertEquals(ControlPad.Button.RIGHT, right.get(n));
+			assertEquals(pulses[n - 1], right.get(n - 1));
+		}
+	}
+
+	@Test
+	public void test_04() {
+		// Each pulse is read as one value per button
+		TinyBoyInputSequence seq = TinyBoyInputSequence.parse("L_");
+		assertEquals(0, seq.position());
+		assertTrue(seq.isOnBoundary());
+		assertEquals(ControlPad.Button.LEFT, seq.get(0));
+		assertNull(seq.get(1));
+		for (int i = 0; i != BUTTONS.length; ++i) {
+			assertEquals(BUTTONS[i] == ControlPad.Button.LEFT, seq.getAsBoolean());
+			assertEquals(i + 1 == BUTTONS.length, seq.isOnBoundary());
+		}
+		assertEquals(1, seq.position());
+		for (int i = 0; i != BUTTONS.length; ++i) {
+			assertFalse(seq.getAsBoolean());
+		}
+		assertEquals(2, seq.position());
+		// Reading past the end gives nothing pressed, until the next read of the
+		// buttons has completed
+		assertTrue(seq.hasNext());
+		for (int i = 0; i != BUTTONS.length; ++i) {
+			assertFalse(seq.getAsBoolean());
+		}
+		assertFalse(seq.hasNext());
+	}
+
+	@Test
+	public void test_05() {
+		// Seeking to a pulse resumes reading from its first value
+		TinyBoyInputSequence seq = TinyBoyInputSequence.parse("UDRL");
+		seq.getAsBoolean();
+		assertFalse(seq.isOnBoundary());
+		seq.seek(3);
+		assertEquals(3, seq.position());
+		assertTrue(seq.isOnBoundary());
+		for (int i = 0; i != BUTTONS.length; ++i) {
+			assertEquals(BUTTONS[i] == ControlPad.Button.LEFT, seq.getAsBoolean());
+		}
+		// A copy has its own position
+		TinyBoyInputSequence copy = new TinyBoyInputSequence(seq);
+		assertEquals(0, copy.position());
+		seq.seek(0);
+		assertEquals(ControlPad.Button.UP, seq.get(seq.position()));
+		assertTrue(seq.getAsBoolean());
+	}
+
+	@Test
+	public void test_06() {
+		// Packing and unpacking gives the same sequence
+		ControlPad.Button[] pulses = random(new Random(6), 777);
+		TinyBoyInputSequence seq = new TinyBoyInputSequence(pulses);
+		TinyBoyInputSequence unpacked = TinyBoyInputSequence.unpack(seq.pack(), seq.length());
+		assertEquals(seq.toString(), unpacked.toString());
+		// Which can be extended like any other
+		assertEquals(seq.toString() + "U", unpacked.append(ControlPad.Button.UP).toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_07() {
+		// A pulse which is not a button
+		TinyBoyInputSequence.unpack(new long[] { 0b111 }, 1);
+	}
+
+	@Test
+	public void test_08() {
+		// Likewise for sequences built by appending, which end on a chunk boundary
+		ControlPad.Button[] pulses = random(new Random(8), 3 * 336);
+		TinyBoyInputSequence seq = new TinyBoyInputSequence();
+		for (int i = 0; i != pulses.length; ++i) {
+			seq = seq.append(pulses[i]);
+			if (((i + 1) % 336) == 0) {
+				TinyBoyInputSequence unpacked = TinyBoyInputSequence.unpack(seq.pack(), seq.length());
+				assertEquals(seq.toString(), unpacked.toString());
+			}
+		}
+	}
+
+	private static ControlPad.Button[] random(Random random, int n) {
+		ControlPad.Button[] pulses = new ControlPad.Button[n];
+		for (int i = 0; i != n; ++i) {
+			int j = random.nextInt(BUTTONS.length + 1);
+			pulses[i] = j == BUTTONS.length ? null : BUTTONS[j];
+		}
+		return pulses;
+	}
+}
@@ -0,0 +1,198 @@
+package tinyboy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import javr.io.HexFile;
+import tinyboy.core.TinyBoyInputSequence;
+
+/**
+ * Tests for running campaigns across several worker threads, checking that
+ * every input is recorded exactly once and that a campaign stops when it
+ * should.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class AutomatedTesterTests {
+	/**
+	 * Firmware which counts UP presses against DOWN presses, and resets the count
+	 * whenever it reaches three. That is:
+	 *
+	 * <pre>
+	 *          ldi r16, 0x05
+	 *          out DDRB, r16
+	 * loop:    in r17, PINB
+	 *          sbrs r17, 1     ; UP (PB1)
+	 *          rjmp notup
+	 *          inc r18
+	 * notup:   sbrs r17, 3     ; DOWN (PB3)
+	 *          rjmp notdown
+	 *          dec r18
+	 * notdown: cpi r18, 3
+	 *          brne loop
+	 *          ldi r18, 0
+	 *          rjmp loop
+	 * </pre>
+	 */
+	private static final String FIRMWARE = ":1000000005E007BB16B311FF01C0239513FF01C024\n"
+			+ ":0A0010002A952330B9F720E0F5CF60\n" + ":00000001FF\n";
+
+	@Test
+	public void test_01() throws IOException, InterruptedException, ExecutionException {
+		// Runs until the generator is exhausted, since the target is unreachable
+		HexFile firmware = new HexFile.Reader(new StringReader(FIRMWARE)).readAll();
+		Generator generator = new Generator(new Random(1), 200);
+		AutomatedTester<TinyBoyInputSequence> tester = new AutomatedTester<>(firmware, generator, false, 4, 2);
+		tester.setReporter(metrics -> {
+		});
+		try {
+			tester.run(Double.POSITIVE_INFINITY);
+		} finally {
+			tester.destroy();
+		}
+		assertEquals(200, generator.generated);
+		assertEquals(200, generator.recorded.size());
+		for (int n : generator.recorded.values()) {
+			assertEquals(1, n);
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void test_02() throws IOException, InterruptedException, ExecutionException {
+		// Stops once the target is reached, even though the generator never ends
+		HexFile firmware = new HexFile.Reader(new StringReader(FIRMWARE)).readAll();
+		Generator generator = new Generator(new Random(2), Integer.MAX_VALUE);
+		AutomatedTester<TinyBoyInputSequence> tester = new AutomatedTester<>(firmware, generator, false, 4, 2);
+		tester.setReporter(metrics -> {
+		});
+		CoverageAnalysis analysis;
+		try {
+			analysis = tester.run(100.0);
+		} finally {
+			tester.destroy();
+		}
+		assertEquals(100.0, analysis.getBranchCoverage(), 0.0);
+		assertTrue(generator.recorded.size() <= generator.generated);
+		for (int n : generator.recorded.values()) {
+			assertEquals(1, n);
+		}
+	}
+
+	@Test
+	public void test_03() throws IOException, InterruptedException, ExecutionException {
+		// The same sequence executed twice without a prefix cache. The second run
+		// must start from the beginning, even though the first exhausted it.
+		HexFile firmware = new HexFile.Reader(new StringReader(FIRMWARE)).readAll();
+		Repeater generator = new Repeater(TinyBoyInputSequence.parse("UUD_UUUD"), 2);
+		AutomatedTester<TinyBoyInputSequence> tester = new AutomatedTester<>(firmware, generator, false, 1, 1, 0);
+		tester.setReporter(metrics -> {
+		});
+		try {
+			tester.run(Double.POSITIVE_INFINITY);
+		} finally {
+			tester.destroy();
+		}
+		assertEquals(2, generator.results.size());
+		AutomatedTester.Result first = generator.results.get(0);
+		AutomatedTester.Result second = generator.results.get(1);
+		assertEquals(first.getCycles(), second.getCycles());
+		assertEquals(first.getStateHash(), second.getStateHash());
+		assertEquals(first.getCodeExecuted(), second.getCodeExecuted());
+	}
+
+	/**
+	 * Generates a given number of random inputs, counting how many times each is
+	 * recorded.
+	 */
+	private static final class Generator implements AutomatedTester.InputGenerator<TinyBoyInputSequence> {
+		private static final String PULSES = "UD_";
+		private final Random random;
+		private final int limit;
+		private int generated;
+		private final IdentityHashMap<TinyBoyInputSequence, Integer> recorded = new IdentityHashMap<>();
+
+		public Generator(Random random, int limit) {
+			this.random = random;
+			this.limit = limit;
+		}
+
+		@Override
+		public TinyBoyInputSequence generate() {
+			StringBuilder pulses = new StringBuilder();
+			int n = 1 + random.nextInt(20);
+			for (int i = 0; i != n; ++i) {
+				pulses.append(PULSES.charAt(random.nextInt(PULSES.length())));
+			}
+			generated = generated + 1;
+			return TinyBoyInputSequence.parse(pulses.toString());
+		}
+
+		@Override
+		public void record(TinyBoyInputSequence input, BitSet output, byte[] state) {
+			recorded.merge(input, 1, Integer::sum);
+		}
+
+		@Override
+		public boolean needsState() {
+			return false;
+		}
+
+		@Override
+		public boolean hasMore() {
+			return generated < limit;
+		}
+	}
+
+	/**
+	 * Generates the same input a given number of times, keeping the result of
+	 * each.
+	 */
+	private static final class Repeater implements AutomatedTester.InputGenerator<TinyBoyInputSequence> {
+		private final TinyBoyInputSequence input;
+		private int remaining;
+		private final List<AutomatedTester.Result> results = new ArrayList<>();
+
+		public Repeater(TinyBoyInputSequence input, int times) {
+			this.input = input;
+			this.remaining = times;
+		}
+
+		@Override
+		public TinyBoyInputSequence generate() {
+			remaining = remaining - 1;
+			return input;
+		}
+
+		@Override
+		public void record(TinyBoyInputSequence input, AutomatedTester.Result result) {
+			results.add(result);
+		}
+
+		@Override
+		public void record(TinyBoyInputSequence input, BitSet output, byte[] state) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean needsState() {
+			return false;
+		}
+
+		@Override
+		public boolean hasMore() {
+			return remaining > 0;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package tinyboy.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import tinyboy.core.TinyBoyInputSequence;
+
+/**
+ * Tests for the greedy selection of inputs covering everything covered by a
+ * corpus.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CorpusDistillerTests {
+
+	@Test
+	public void test_01() {
+		// Inputs adding nothing are dropped
+		List<String> r = select(input("LLL", 1, 2, 3), input("LL", 1, 2), input("RRRR", 3, 4));
+		assertEquals(Arrays.asList("LLL", "RRRR"), r);
+	}
+
+	@Test
+	public void test_02() {
+		// Shorter inputs are preferred when covering the same amount
+		List<String> r = select(input("LLLLL", 1, 2), input("RR", 1, 2));
+		assertEquals(Arrays.asList("RR"), r);
+	}
+
+	@Test
+	public void test_03() {
+		// Likewise, once the gains have been recomputed
+		List<String> r = select(input("LLL", 1, 2, 3), input("UU", 3, 4), input("D", 3, 4));
+		assertEquals(Arrays.asList("LLL", "D"), r);
+	}
+
+	@Test
+	public void test_04() {
+		// Otherwise, earlier inputs are preferred
+		List<String> r = select(input("UU", 5), input("DD", 5), input("LL", 6));
+		assertEquals(Arrays.asList("UU", "LL"), r);
+	}
+
+	@Test
+	public void test_05() {
+		// An input with the largest gain is chosen over one which was initially
+		// larger
+		List<String> r = select(input("U", 1, 2, 3, 4), input("D", 1, 2, 3, 5), input("L", 5, 6, 7));
+		assertEquals(Arrays.asList("U", "L"), r);
+	}
+
+	private static Object[] input(String input, int... covered) {
+		BitSet bits = new BitSet();
+		for (int i : covered) {
+			bits.set(i);
+		}
+		return new Object[] { TinyBoyInputSequence.parse(input), bits };
+	}
+
+	private static List<String> select(Object[]... corpus) {
+		ArrayList<TinyBoyInputSequence> inputs = new ArrayList<>();
+		BitSet[] coverage = new BitSet[corpus.length];
+		for (int i = 0; i != corpus.length; ++i) {
+			inputs.add((TinyBoyInputSequence) corpus[i][0]);
+			coverage[i] = (BitSet) corpus[i][1];
+		}
+		ArrayList<String> r = new ArrayList<>();
+		for (TinyBoyInputSequence input : CorpusDistiller.select(inputs, coverage)) {
+			r.add(input.toString());
+		}
+		return r;
+	}
+}
@@ -0,0 +1,152 @@
+package tinyboy.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import javr.io.HexFile;
+import tinyboy.core.TinyBoyInputSequence;
+
+/**
+ * Tests for reading back the inputs and coverage written to a corpus store,
+ * including after part of the store was lost.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CorpusStoreTests {
+
+	@Test
+	public void test_01() throws IOException {
+		// Inputs and coverage survive reopening the store
+		Path file = Files.createTempFile("corpus", ".store");
+		HexFile firmware = firmware();
+		TinyBoyInputSequence first = TinyBoyInputSequence.parse("LLRR_UD");
+		TinyBoyInputSequence second = TinyBoyInputSequence.parse(repeat("_LRUD", 100));
+		byte[] virgin = EdgeCoverage.newVirginMap();
+		virgin[3] = 0x7F;
+		try (CorpusStore store = CorpusStore.open(file, firmware)) {
+			store.append(first, bits(1, 2, 3));
+			store.append(second, bits(4, 500));
+			store.saveCoverage(bits(1, 2, 3, 4, 500), virgin);
+		}
+		try (CorpusStore store = CorpusStore.open(file, firmware)) {
+			List<CorpusStore.Entry> entries = store.getEntries();
+			assertEquals(2, entries.size());
+			assertEquals(first.toString(), entries.get(0).getInput().toString());
+			assertEquals(bits(1, 2, 3), entries.get(0).getCoverage());
+			assertEquals(second.toString(), entries.get(1).getInput().toString());
+			assertEquals(bits(4, 500), entries.get(1).getCoverage());
+			assertEquals(bits(1, 2, 3, 4, 500), store.getCoverage());
+			assertArrayEquals(virgin, store.getVirginMap());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void test_02() throws IOException {
+		// A damaged record is discarded along with everything after it
+		Path file = Files.createTempFile("corpus", ".store");
+		HexFile firmware = firmware();
+		try (CorpusStore store = CorpusStore.open(file, firmware)) {
+			store.append(TinyBoyInputSequence.parse("LR"), bits(1));
+			store.append(TinyBoyInputSequence.parse("UD"), bits(2));
+		}
+		damageLastRecord(file);
+		try (CorpusStore store = CorpusStore.open(file, firmware)) {
+			assertEquals(1, store.getEntries().size());
+			// The next record replaces the damaged one
+			store.append(TinyBoyInputSequence.parse("__"), bits(3));
+		}
+		try (CorpusStore store = CorpusStore.open(file, firmware)) {
+			List<CorpusStore.Entry> entries = store.getEntries();
+			assertEquals(2, entries.size());
+			assertEquals("LR", entries.get(0).getInput().toString());
+			assertEquals("__", entries.get(1).getInput().toString());
+			assertEquals(bits(3), entries.get(1).getCoverage());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void test_03() throws IOException {
+		// A reader waits for a record which does not (yet) validate
+		Path file = Files.createTempFile("corpus", ".store");
+		HexFile firmware = firmware();
+		try (CorpusStore store = CorpusStore.open(file, firmware);
+				CorpusStore.Reader reader = new CorpusStore.Reader(file, firmware)) {
+			store.append(TinyBoyInputSequence.parse("LR"), bits(1));
+			assertEquals(1, reader.poll().size());
+			store.append(TinyBoyInputSequence.parse("UD"), bits(2));
+			store.sync();
+			int offset = damageLastRecord(file);
+			assertEquals(0, reader.poll().size());
+			flip(file, offset);
+			List<CorpusStore.Entry> entries = reader.poll();
+			assertEquals(1, entries.size());
+			assertEquals("UD", entries.get(0).getInput().toString());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Flip the last non-zero byte of a store, which belongs to its last record.
+	 *
+	 * @param file
+	 * @return The offset of the byte flipped.
+	 * @throws IOException
+	 */
+	private static int damageLastRecord(Path file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		int i = bytes.length - 1;
+		while (bytes[i] == 0) {
+			i = i - 1;
+		}
+		flip(file, i);
+		return i;
+	}
+
+	private static void flip(Path file, int offset) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer b = ByteBuffer.allocate(1);
+			channel.read(b, offset);
+			b.put(0, (byte) ~b.get(0));
+			b.rewind();
+			channel.write(b, offset);
+		}
+	}
+
+	private static HexFile firmware() throws IOException {
+		return new HexFile.Reader(new StringReader(":0400000001020304F2\n:00000001FF\n")).readAll();
+	}
+
+	private static BitSet bits(int... indices) {
+		BitSet r = new BitSet();
+		for (int i : indices) {
+			r.set(i);
+		}
+		return r;
+	}
+
+	private static String repeat(String str, int n) {
+		StringBuilder r = new StringBuilder();
+		for (int i = 0; i != n; ++i) {
+			r.append(str);
+		}
+		return r.toString();
+	}
+}
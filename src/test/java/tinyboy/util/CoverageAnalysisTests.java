@@ -0,0 +1,141 @@
+package tinyboy.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import javr.io.HexFile;
+
+/**
+ * Tests that the coverage maintained incrementally by a coverage analysis
+ * matches that computed from scratch over the same coverage data.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CoverageAnalysisTests {
+	/**
+	 * Firmware with three conditional branches, two of which are skips (see
+	 * <code>AutomatedTesterTests</code>).
+	 */
+	private static final String BRANCHES = ":1000000005E007BB16B311FF01C0239513FF01C024\n"
+			+ ":0A0010002A952330B9F720E0F5CF60\n" + ":00000001FF\n";
+	/**
+	 * Firmware without any conditional branches (see
+	 * <code>InputMinimizerTests</code>).
+	 */
+	private static final String NO_BRANCHES = ":1200000005E007BB16B31695117018BB146018BBF9CF70\n:00000001FF\n";
+
+	@Test
+	public void test_01() throws IOException {
+		check(new HexFile.Reader(new StringReader(BRANCHES)).readAll(), new Random(1));
+	}
+
+	@Test
+	public void test_02() throws IOException {
+		// Without any branches, branch coverage is always complete
+		CoverageAnalysis analysis = new CoverageAnalysis(new HexFile.Reader(new StringReader(NO_BRANCHES)).readAll());
+		assertEquals(100.0, analysis.getBranchCoverage(), 0.0);
+		assertEquals(0.0, analysis.getInstructionCoverage(), 0.0);
+		analysis.record(analysis.getReachableInstructions());
+		assertEquals(100.0, analysis.getBranchCoverage(), 0.0);
+		assertEquals(100.0, analysis.getInstructionCoverage(), 0.0);
+	}
+
+	@Test
+	public void test_03() throws IOException {
+		checkRom("fader");
+	}
+
+	@Test
+	public void test_04() throws IOException {
+		checkRom("snake");
+	}
+
+	@Test
+	public void test_05() throws IOException {
+		checkRom("sokoban");
+	}
+
+	@Test
+	public void test_06() throws IOException {
+		checkRom("tetris");
+	}
+
+	/**
+	 * Check a ROM built in the <code>ROMS</code> directory. This is skipped when
+	 * the ROM has not been built.
+	 *
+	 * @param name
+	 * @throws IOException
+	 */
+	private static void checkRom(String name) throws IOException {
+		File file = new File("ROMS", name + ".hex");
+		Assume.assumeTrue(file.exists());
+		try (Reader reader = new FileReader(file)) {
+			check(new HexFile.Reader(reader).readAll(), new Random(name.hashCode()));
+		}
+	}
+
+	/**
+	 * Record random subsets of the reachable instructions until all are covered,
+	 * checking after each that the coverage reported matches that computed from
+	 * scratch.
+	 *
+	 * @param firmware
+	 * @param random
+	 */
+	private static void check(HexFile firmware, Random random) {
+		CoverageAnalysis analysis = new CoverageAnalysis(firmware);
+		BitSet reachable = analysis.getReachableInstructions();
+		BitSet covered = new BitSet();
+		while (!covered.equals(reachable)) {
+			BitSet data = new BitSet();
+			for (int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i + 1)) {
+				if (random.nextInt(16) == 0) {
+					data.set(i);
+				}
+			}
+			analysis.record(data);
+			covered.or(data);
+			assertEquals(covered, analysis.getCoverage());
+			assertEquals(instructionCoverage(analysis, reachable), analysis.getInstructionCoverage(), 0.0);
+			assertEquals(branchCoverage(analysis, reachable), analysis.getBranchCoverage(), 0.0);
+		}
+		assertEquals(100.0, analysis.getInstructionCoverage(), 0.0);
+		assertEquals(100.0, analysis.getBranchCoverage(), 0.0);
+	}
+
+	private static double instructionCoverage(CoverageAnalysis analysis, BitSet reachable) {
+		int total = 0;
+		int covered = 0;
+		for (int pc = 0; pc <= reachable.length() / 2; ++pc) {
+			if (analysis.isReachableInstruction(pc)) {
+				total = total + 1;
+				covered += analysis.wasCovered(pc) ? 1 : 0;
+			}
+		}
+		return (100.0 * covered) / total;
+	}
+
+	private static double branchCoverage(CoverageAnalysis analysis, BitSet reachable) {
+		int total = 0;
+		int covered = 0;
+		for (int pc = 0; pc <= reachable.length() / 2; ++pc) {
+			if (analysis.isConditionalBranch(pc)) {
+				total = total + 1;
+				covered += analysis.isConditionalBranchCovered(pc) ? 1 : 0;
+			}
+		}
+		return total == 0 ? 100.0 : (100.0 * covered) / total;
+	}
+}
@@ -0,0 +1,102 @@
+package tinyboy.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the classification of edge coverage, and for resuming a run part
+ * way through.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class EdgeCoverageTests {
+
+	@Test
+	public void test_01() {
+		// A fresh map sees everything as new
+		EdgeCoverage edges = new EdgeCoverage();
+		byte[] virgin = EdgeCoverage.newVirginMap();
+		run(edges, 0, 1, 2, 3);
+		assertEquals(3, edges.size());
+		assertEquals(EdgeCoverage.NEW_EDGE, edges.merge(virgin));
+		// The same run again is nothing new
+		run(edges, 0, 1, 2, 3);
+		assertEquals(EdgeCoverage.NOTHING_NEW, edges.merge(virgin));
+	}
+
+	@Test
+	public void test_02() {
+		// Taking a known edge more often is a new hit count
+		EdgeCoverage edges = new EdgeCoverage();
+		byte[] virgin = EdgeCoverage.newVirginMap();
+		run(edges, 0, 1, 0, 1);
+		edges.merge(virgin);
+		run(edges, 0, 1, 0, 1, 0, 1, 0, 1, 0);
+		assertEquals(EdgeCoverage.NEW_HIT_COUNT, edges.merge(virgin));
+		// Whilst the same number of times within a bucket is not
+		run(edges, 0, 1, 0, 1, 0, 1, 0, 1, 0, 1, 0);
+		assertEquals(EdgeCoverage.NOTHING_NEW, edges.merge(virgin));
+	}
+
+	@Test
+	public void test_03() {
+		// A run resumed from a saved state merges exactly as one executed in full
+		Random random = new Random(3);
+		int[] pcs = new int[5000];
+		for (int i = 0; i != pcs.length; ++i) {
+			pcs[i] = random.nextInt(64);
+		}
+		byte[] full = EdgeCoverage.newVirginMap();
+		EdgeCoverage edges = new EdgeCoverage();
+		edges.reset(pcs[0]);
+		for (int i = 1; i != pcs.length; ++i) {
+			edges.visit(pcs[i]);
+		}
+		int expected = edges.merge(full);
+		// Now split the run in two, with an unrelated run in between
+		byte[] resumed = EdgeCoverage.newVirginMap();
+		edges.reset(pcs[0]);
+		for (int i = 1; i != 2500; ++i) {
+			edges.visit(pcs[i]);
+		}
+		EdgeCoverage.State state = edges.save();
+		run(edges, 100, 101, 102);
+		edges.restore(state);
+		for (int i = 2500; i != pcs.length; ++i) {
+			edges.visit(pcs[i]);
+		}
+		assertEquals(expected, edges.merge(resumed));
+		assertArrayEquals(full, resumed);
+	}
+
+	@Test
+	public void test_04() {
+		// Progress is measured against the edges seen by earlier runs
+		byte[] virgin = EdgeCoverage.newVirginMap();
+		EdgeCoverage edges = new EdgeCoverage(virgin);
+		run(edges, 0, 1, 2, 1, 2);
+		assertEquals(3, edges.getNewEdges());
+		edges.merge(virgin);
+		run(edges, 0, 1, 2, 3);
+		assertEquals(1, edges.getNewEdges());
+		// Which survives saving and restoring
+		EdgeCoverage.State state = edges.save();
+		run(edges, 7, 8);
+		edges.restore(state);
+		assertEquals(1, edges.getNewEdges());
+		edges.visit(4);
+		assertEquals(2, edges.getNewEdges());
+	}
+
+	private static void run(EdgeCoverage edges, int start, int... pcs) {
+		edges.reset(start);
+		for (int pc : pcs) {
+			edges.visit(pc);
+		}
+	}
+}
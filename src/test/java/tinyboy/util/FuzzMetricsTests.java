@@ -0,0 +1,79 @@
+package tinyboy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * Tests that the metrics of one campaign do not leak into the next, and that
+ * metrics can be registered and withdrawn over JMX.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class FuzzMetricsTests {
+
+	@Test
+	public void test_01() {
+		FuzzMetrics metrics = new FuzzMetrics(2);
+		metrics.getWorker(0).recordTest(100, 1, 2, 3);
+		metrics.getWorker(1).recordTest(200, 1, 2, 3);
+		metrics.getWorker(1).recordIdle(5);
+		assertEquals(2, metrics.getInputs());
+		assertEquals(300, metrics.getCycles());
+		assertEquals(2, metrics.getExecuteTimes().getCount());
+		// Starting a new campaign discards the old one
+		metrics.start();
+		assertEquals(0, metrics.getInputs());
+		assertEquals(0, metrics.getCycles());
+		assertEquals(0, metrics.getWorker(1).getIdleTime());
+		assertEquals(0, metrics.getExecuteTimes().getCount());
+		assertEquals(0, metrics.getRecorded());
+		metrics.getWorker(0).recordTest(50, 1, 2, 3);
+		assertEquals(1, metrics.getInputs());
+		assertEquals(50, metrics.getCycles());
+	}
+
+	@Test
+	public void test_02() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = FuzzMetrics.getObjectName("test_02");
+		FuzzMetrics metrics = new FuzzMetrics(1);
+		metrics.getWorker(0).recordTest(100, 1, 2, 3);
+		metrics.register("test_02");
+		assertTrue(metrics.isRegistered());
+		assertEquals(1L, server.getAttribute(name, "Inputs"));
+		metrics.unregister();
+		assertFalse(metrics.isRegistered());
+		assertFalse(server.isRegistered(name));
+		// Unregistering again does nothing
+		metrics.unregister();
+		// Once withdrawn, the name can be reused
+		FuzzMetrics other = new FuzzMetrics(1);
+		other.register("test_02");
+		assertTrue(server.isRegistered(name));
+		other.unregister();
+		assertFalse(server.isRegistered(name));
+	}
+
+	@Test
+	public void test_03() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		FuzzMetrics metrics = new FuzzMetrics(1);
+		metrics.register("test_03a");
+		// Registering under another name withdraws the first
+		metrics.register("test_03b");
+		assertFalse(server.isRegistered(FuzzMetrics.getObjectName("test_03a")));
+		assertTrue(server.isRegistered(FuzzMetrics.getObjectName("test_03b")));
+		metrics.unregister();
+		assertFalse(server.isRegistered(FuzzMetrics.getObjectName("test_03b")));
+	}
+}
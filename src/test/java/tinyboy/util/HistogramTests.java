@@ -0,0 +1,84 @@
+package tinyboy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the bucketing of values by a histogram, and the percentiles
+ * derived from it.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class HistogramTests {
+
+	@Test
+	public void test_01() {
+		// Small values are counted exactly
+		Histogram h = new Histogram();
+		for (int i = 0; i != 32; ++i) {
+			h.record(i);
+		}
+		assertEquals(32, h.getCount());
+		assertEquals(31, h.getMax());
+		assertEquals(15.5, h.getMean(), 0);
+		assertEquals(0, h.getValueAtPercentile(0));
+		assertEquals(15, h.getValueAtPercentile(50));
+		assertEquals(31, h.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void test_02() {
+		// Larger values are counted to within the precision of their bucket
+		Random random = new Random(2);
+		for (int i = 0; i != 1000; ++i) {
+			long value = 32 + (random.nextLong() >>> (1 + random.nextInt(32)));
+			Histogram h = new Histogram();
+			h.record(value);
+			h.record(Long.MAX_VALUE);
+			long v = h.getValueAtPercentile(50);
+			assertTrue(v >= value);
+			assertTrue(v - value <= value / 32);
+		}
+	}
+
+	@Test
+	public void test_03() {
+		// Percentiles follow the distribution of values
+		Histogram h = new Histogram();
+		for (int i = 0; i != 900; ++i) {
+			h.record(10);
+		}
+		for (int i = 0; i != 100; ++i) {
+			h.record(100000);
+		}
+		assertEquals(10, h.getValueAtPercentile(50));
+		assertEquals(10, h.getValueAtPercentile(90));
+		assertEquals(100000, h.getValueAtPercentile(99));
+		// Negative values are treated as zero
+		h.record(-5);
+		assertEquals(0, h.getValueAtPercentile(0));
+	}
+
+	@Test
+	public void test_04() {
+		// Adding and resetting histograms
+		Histogram h1 = new Histogram();
+		Histogram h2 = new Histogram();
+		h1.record(5);
+		h2.record(7);
+		h1.add(h2);
+		assertEquals(2, h1.getCount());
+		assertEquals(7, h1.getMax());
+		assertEquals(6.0, h1.getMean(), 0);
+		assertEquals(7, h1.getValueAtPercentile(100));
+		h1.reset();
+		assertEquals(0, h1.getCount());
+		assertEquals(0, h1.getMax());
+		assertEquals(0, h1.getValueAtPercentile(50));
+	}
+}
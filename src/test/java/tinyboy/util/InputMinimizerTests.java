@@ -0,0 +1,82 @@
+package tinyboy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import javr.core.AVR.HaltedException;
+import javr.io.HexFile;
+import tinyboy.core.SymbolicPullWire;
+import tinyboy.core.TinyBoyEmulator;
+import tinyboy.core.TinyBoyInputSequence;
+
+/**
+ * Tests for minimising inputs whilst preserving what they leave on the display.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class InputMinimizerTests {
+	/**
+	 * Firmware which repeatedly reads the buttons, and then shifts one pixel onto
+	 * the display which is set if UP was pressed. That is:
+	 *
+	 * <pre>
+	 *       ldi r16, 0x05   ; SCK and MOSI are outputs
+	 *       out DDRB, r16
+	 * loop: in r17, PINB
+	 *       lsr r17         ; UP (PB1) to MOSI (PB0)
+	 *       andi r17, 0x01
+	 *       out PORTB, r17
+	 *       ori r17, 0x04   ; rising edge on SCK (PB2)
+	 *       out PORTB, r17
+	 *       rjmp loop
+	 * </pre>
+	 */
+	private static final String FIRMWARE = ":1200000005E007BB16B31695117018BB146018BBF9CF70\n:00000001FF\n";
+
+	@Test
+	public void test_01() throws IOException, InterruptedException, ExecutionException {
+		// Only the pulses which determine the final frame are kept
+		HexFile firmware = new HexFile.Reader(new StringReader(FIRMWARE)).readAll();
+		long blank = frameHash(firmware, "");
+		long target = frameHash(firmware, "_U__U___");
+		assertNotEquals(blank, target);
+		InputMinimizer minimizer = new InputMinimizer(firmware, InputMinimizer.frameHash(target), 2);
+		try {
+			TinyBoyInputSequence r = minimizer.minimise(TinyBoyInputSequence.parse("_U__U___"));
+			assertEquals("_U__U", r.toString());
+		} finally {
+			minimizer.destroy();
+		}
+	}
+
+	/**
+	 * Determine the frame shown after executing a given input in full.
+	 *
+	 * @param firmware
+	 * @param input
+	 * @return
+	 */
+	private static long frameHash(HexFile firmware, String input) {
+		SymbolicPullWire[] wires = SymbolicPullWire.createButtons();
+		TinyBoyEmulator tinyBoy = new TinyBoyEmulator(labels -> SymbolicPullWire.select(wires, labels));
+		tinyBoy.reset();
+		tinyBoy.upload(firmware);
+		TinyBoyInputSequence seq = TinyBoyInputSequence.parse(input);
+		SymbolicPullWire.bind(wires, seq);
+		try {
+			while (seq.hasNext()) {
+				tinyBoy.clock();
+			}
+		} catch (HaltedException e) {
+			throw new IllegalStateException(e);
+		}
+		return tinyBoy.getFrameHash();
+	}
+}
@@ -0,0 +1,79 @@
+package tinyboy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+import tinyboy.core.TinyBoyEmulator;
+import tinyboy.core.TinyBoyInputSequence;
+
+/**
+ * Tests for finding the longest cached prefix of an input, and for evicting the
+ * least recently used checkpoints.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class PrefixCacheTests {
+	private static final TinyBoyEmulator.Snapshot SNAPSHOT = new TinyBoyEmulator().snapshot();
+
+	@Test
+	public void test_01() {
+		// The longest cached prefix is found
+		PrefixCache cache = new PrefixCache(8);
+		record(cache, "LRU", 1);
+		record(cache, "LRU", 2);
+		assertEquals(2, cache.lookup(seq("LRD")).length());
+		assertEquals(1, cache.lookup(seq("LUU")).length());
+		assertNull(cache.lookup(seq("RRU")));
+	}
+
+	@Test
+	public void test_02() {
+		// The least recently recorded is evicted first
+		PrefixCache cache = new PrefixCache(2);
+		record(cache, "L", 1);
+		record(cache, "R", 1);
+		record(cache, "U", 1);
+		assertEquals(2, cache.size());
+		assertNull(cache.lookup(seq("L")));
+		assertNotNull(cache.lookup(seq("R")));
+		assertNotNull(cache.lookup(seq("U")));
+	}
+
+	@Test
+	public void test_03() {
+		// A lookup makes a checkpoint recently used
+		PrefixCache cache = new PrefixCache(2);
+		record(cache, "L", 1);
+		record(cache, "R", 1);
+		assertNotNull(cache.lookup(seq("LD")));
+		record(cache, "U", 1);
+		assertNotNull(cache.lookup(seq("L")));
+		assertNull(cache.lookup(seq("R")));
+		assertNotNull(cache.lookup(seq("U")));
+	}
+
+	@Test
+	public void test_04() {
+		// Evicting a checkpoint leaves those for its prefixes in place
+		PrefixCache cache = new PrefixCache(2);
+		record(cache, "LRUD", 4);
+		record(cache, "LRUD", 1);
+		record(cache, "D", 1);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.lookup(seq("LRUD")).length());
+	}
+
+	private static void record(PrefixCache cache, String input, int length) {
+		cache.record(seq(input), length, SNAPSHOT, new BitSet(), new EdgeCoverage().save(), 0, 0);
+	}
+
+	private static TinyBoyInputSequence seq(String input) {
+		return TinyBoyInputSequence.parse(input);
+	}
+}